@@ -8,7 +8,9 @@ create or replace table account
 (
     id         bigint auto_increment
         primary key,
-    student_id varchar(255) unique null
+    student_id varchar(255) unique null,
+    outstanding_count  bigint not null default 0,
+    outstanding_amount_minor bigint not null default 0
 );
 
 INSERT INTO finance.account (id, student_id) VALUES (1, 'c3781247');
@@ -19,31 +21,83 @@ create or replace table invoice
     id         bigint auto_increment
         primary key,
     reference varchar(255) unique null,
-    amount     double   null,
+    amount_minor bigint   null,
     due_date   datetime null,
     status     int      null,
     type       int      null,
     account_fk bigint   null,
+    change_sequence bigint null,
     constraint FK237udfnwpogi0olckbos14vma
-        foreign key (account_fk) references account (id)
+        foreign key (account_fk) references account (id),
+    index idx_invoice_status_due_date (status, due_date),
+    index idx_invoice_account_status (account_fk, status),
+    index idx_invoice_change_sequence (change_sequence)
 );
 
-INSERT INTO finance.invoice (id, reference, amount, due_date, status, type, account_fk) VALUES (1, 'ABCD1234', 350.4, '2022-01-06 09:29:04', 0, 1, 1);
-INSERT INTO finance.invoice (id, reference, amount, due_date, status, type, account_fk) VALUES (2, 'AABB1122', 30.0, '2021-10-07 09:29:04', 1, 1, 2);
-INSERT INTO finance.invoice (id, reference, amount, due_date, status, type, account_fk) VALUES (3, 'CCDD3344', 37.85, '2021-11-07 09:29:04', 2, 0, 1);
-INSERT INTO finance.invoice (id, reference, amount, due_date, status, type, account_fk) VALUES (4, '99EEFF22', 1000, '2021-03-07 09:29:04', 1, 1, 1);
-INSERT INTO finance.invoice (id, reference, amount, due_date, status, type, account_fk) VALUES (5, 'ZZ666666', 15.6, '2021-12-22 09:29:04', 1, 0, 2);
+INSERT INTO finance.invoice (id, reference, amount_minor, due_date, status, type, account_fk, change_sequence) VALUES (1, 'ABCD1234', 35040, '2022-01-06 09:29:04', 0, 1, 1, 1);
+INSERT INTO finance.invoice (id, reference, amount_minor, due_date, status, type, account_fk, change_sequence) VALUES (2, 'AABB1122', 3000, '2021-10-07 09:29:04', 1, 1, 2, 2);
+INSERT INTO finance.invoice (id, reference, amount_minor, due_date, status, type, account_fk, change_sequence) VALUES (3, 'CCDD3344', 3785, '2021-11-07 09:29:04', 2, 0, 1, 3);
+INSERT INTO finance.invoice (id, reference, amount_minor, due_date, status, type, account_fk, change_sequence) VALUES (4, '99EEFF22', 100000, '2021-03-07 09:29:04', 1, 1, 1, 4);
+INSERT INTO finance.invoice (id, reference, amount_minor, due_date, status, type, account_fk, change_sequence) VALUES (5, 'ZZ666666', 1560, '2021-12-22 09:29:04', 1, 0, 2, 5);
 
-create or replace table account_invoice_list
+-- Each value stands for 1000 change numbers; see InvoiceChangeSequence
+create or replace sequence invoice_change_seq start with 6 increment by 1000;
+
+UPDATE finance.account a SET
+    outstanding_count  = (SELECT count(*) FROM finance.invoice i WHERE i.account_fk = a.id AND i.status = 0),
+    outstanding_amount_minor = (SELECT coalesce(sum(i.amount_minor), 0) FROM finance.invoice i WHERE i.account_fk = a.id AND i.status = 0);
+
+create or replace table sequence_block
 (
-    account_id      bigint not null,
-    invoice_list_id bigint not null,
-    constraint UK_bk0qum00dfjw1le2hlvd2qxlj
-        unique (invoice_list_id),
-    constraint FK2md7wefo9fyru31lawts2qw9b
-        foreign key (invoice_list_id) references invoice (id),
-    constraint FKf6bf69pytpp25ewt2dysq1muu
-        foreign key (account_id) references account (id)
+    name       varchar(255) not null
+        primary key,
+    next_value bigint       not null
+);
+
+INSERT INTO finance.sequence_block (name, next_value) VALUES ('invoice_reference', 0);
+
+create or replace table cache_invalidation
+(
+    id         bigint auto_increment
+        primary key,
+    cache_name varchar(255) not null,
+    cache_key  varchar(255) null,
+    entity_id  bigint       null,
+    origin     varchar(255) not null,
+    created_at datetime(6)  not null,
+    index idx_cache_invalidation_created_at (created_at)
+);
+
+create or replace table outbox_event
+(
+    id              bigint auto_increment
+        primary key,
+    event_id        varchar(255)  not null,
+    endpoint        varchar(512)  not null,
+    event_type      int           not null,
+    payload         longtext      not null,
+    attempts        int           not null default 0,
+    next_attempt_at datetime(6)   null,
+    claim_token     varchar(255)  null,
+    delivered_at    datetime(6)   null,
+    last_error      varchar(1024) null,
+    created_at      datetime(6)   not null,
+    index idx_outbox_event_endpoint_due (endpoint, delivered_at, next_attempt_at),
+    index idx_outbox_event_delivered_at (delivered_at)
+);
+
+create or replace table idempotency_record
+(
+    idempotency_key varchar(255)  not null
+        primary key,
+    fingerprint     varchar(64)   not null,
+    status          int           null,
+    content_type    varchar(255)  null,
+    location        varchar(512)  null,
+    body            longblob      null,
+    created_at      datetime(6)   not null,
+    expires_at      datetime(6)   not null,
+    index idx_idempotency_record_expires_at (expires_at)
 );
 
 CREATE USER 'finance-spring-user'@'%' IDENTIFIED BY 'finance-secret';
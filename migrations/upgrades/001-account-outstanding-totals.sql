@@ -0,0 +1,11 @@
+-- Upgrades an existing finance database to keep the outstanding invoice totals on each account.
+-- New databases get these columns from mysql-migrations.sql.
+use finance;
+
+alter table account
+    add column outstanding_count  bigint not null default 0,
+    add column outstanding_amount double not null default 0;
+
+UPDATE account a SET
+    outstanding_count  = (SELECT count(*) FROM invoice i WHERE i.account_fk = a.id AND i.status = 0),
+    outstanding_amount = (SELECT coalesce(sum(i.amount), 0) FROM invoice i WHERE i.account_fk = a.id AND i.status = 0);
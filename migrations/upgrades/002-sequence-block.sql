@@ -0,0 +1,12 @@
+-- Upgrades an existing finance database to allocate invoice references from a sequence.
+-- New databases get this table from mysql-migrations.sql.
+use finance;
+
+create table if not exists sequence_block
+(
+    name       varchar(255) not null
+        primary key,
+    next_value bigint       not null
+);
+
+INSERT IGNORE INTO sequence_block (name, next_value) VALUES ('invoice_reference', 0);
@@ -0,0 +1,6 @@
+-- Upgrades an existing finance database with the indexes behind the GET /invoices filters.
+-- New databases get these indexes from mysql-migrations.sql.
+use finance;
+
+create index if not exists idx_invoice_status_due_date on invoice (status, due_date);
+create index if not exists idx_invoice_account_status on invoice (account_fk, status);
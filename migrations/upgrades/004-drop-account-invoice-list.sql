@@ -0,0 +1,11 @@
+-- Upgrades an existing finance database to the bidirectional Account.invoiceList mapping, which uses
+-- invoice.account_fk and no longer needs the account_invoice_list join table.
+-- New databases no longer create the join table in mysql-migrations.sql.
+use finance;
+
+UPDATE invoice i
+    JOIN account_invoice_list l ON l.invoice_list_id = i.id
+SET i.account_fk = l.account_id
+WHERE i.account_fk IS NULL;
+
+drop table if exists account_invoice_list;
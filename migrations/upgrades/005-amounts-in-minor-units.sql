@@ -0,0 +1,29 @@
+-- Upgrades an existing finance database to store invoice amounts and outstanding totals in minor units (pence).
+-- New databases get these columns from mysql-migrations.sql.
+-- This is the expand step: the old double columns are kept, and triggers copy every write between the two, so
+-- instances from before and after this release can run side by side during a rolling deploy. Once every instance
+-- has been upgraded, 010-drop-major-unit-amounts.sql drops the triggers and the old columns.
+use finance;
+
+alter table invoice add column if not exists amount_minor bigint null;
+alter table account add column if not exists outstanding_amount_minor bigint not null default 0;
+
+-- Old instances write amount and outstanding_amount, new instances amount_minor and outstanding_amount_minor
+create or replace trigger invoice_amount_minor_insert before insert on invoice for each row
+    SET NEW.amount_minor = coalesce(NEW.amount_minor, round(NEW.amount * 100)),
+        NEW.amount = coalesce(NEW.amount, NEW.amount_minor / 100);
+
+create or replace trigger invoice_amount_minor_update before update on invoice for each row
+    SET NEW.amount_minor = IF(NEW.amount <=> OLD.amount, NEW.amount_minor, round(NEW.amount * 100)),
+        NEW.amount = IF(NEW.amount_minor <=> OLD.amount_minor, NEW.amount, NEW.amount_minor / 100);
+
+create or replace trigger account_outstanding_amount_minor_update before update on account for each row
+    SET NEW.outstanding_amount_minor = IF(NEW.outstanding_amount <=> OLD.outstanding_amount,
+            NEW.outstanding_amount_minor, round(NEW.outstanding_amount * 100)),
+        NEW.outstanding_amount = IF(NEW.outstanding_amount_minor <=> OLD.outstanding_amount_minor,
+            NEW.outstanding_amount, NEW.outstanding_amount_minor / 100);
+
+UPDATE invoice SET amount_minor = round(amount * 100) WHERE amount IS NOT NULL AND amount_minor IS NULL;
+
+UPDATE account a SET
+    outstanding_amount_minor = (SELECT coalesce(sum(i.amount_minor), 0) FROM invoice i WHERE i.account_fk = a.id AND i.status = 0);
@@ -0,0 +1,14 @@
+-- Upgrades an existing finance database to broadcast cache evictions between application instances.
+-- New databases get this table from mysql-migrations.sql.
+use finance;
+
+create table if not exists cache_invalidation
+(
+    id         bigint auto_increment
+        primary key,
+    cache_name varchar(255) not null,
+    cache_key  varchar(255) null,
+    origin     varchar(255) not null,
+    created_at datetime(6)  not null,
+    index idx_cache_invalidation_created_at (created_at)
+);
@@ -0,0 +1,13 @@
+-- Upgrades an existing finance database to number invoice changes for GET /invoices/changes.
+-- Existing invoices are numbered in id order, so a consumer starting from 0 sees each of them once.
+use finance;
+
+alter table invoice
+    add column if not exists change_sequence bigint null;
+
+update invoice set change_sequence = id where change_sequence is null;
+
+create index if not exists idx_invoice_change_sequence on invoice (change_sequence);
+
+INSERT IGNORE INTO sequence_block (name, next_value)
+    SELECT 'invoice_change', coalesce(max(id), 0) + 1 FROM invoice;
@@ -0,0 +1,21 @@
+-- Upgrades an existing finance database to deliver invoice events to webhooks from a transactional outbox.
+-- New databases get this table from mysql-migrations.sql.
+use finance;
+
+create table if not exists outbox_event
+(
+    id              bigint auto_increment
+        primary key,
+    event_id        varchar(255)  not null,
+    endpoint        varchar(512)  not null,
+    event_type      int           not null,
+    payload         longtext      not null,
+    attempts        int           not null default 0,
+    next_attempt_at datetime(6)   null,
+    claim_token     varchar(255)  null,
+    delivered_at    datetime(6)   null,
+    last_error      varchar(1024) null,
+    created_at      datetime(6)   not null,
+    index idx_outbox_event_endpoint_due (endpoint, delivered_at, next_attempt_at),
+    index idx_outbox_event_delivered_at (delivered_at)
+);
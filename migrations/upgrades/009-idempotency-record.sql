@@ -0,0 +1,17 @@
+-- Upgrades an existing finance database to share Idempotency-Key responses between instances (finance.idempotency.store=jdbc).
+-- New databases get this table from mysql-migrations.sql.
+use finance;
+
+create table if not exists idempotency_record
+(
+    idempotency_key varchar(255)  not null
+        primary key,
+    fingerprint     varchar(64)   not null,
+    status          int           null,
+    content_type    varchar(255)  null,
+    location        varchar(512)  null,
+    body            longblob      null,
+    created_at      datetime(6)   not null,
+    expires_at      datetime(6)   not null,
+    index idx_idempotency_record_expires_at (expires_at)
+);
@@ -0,0 +1,11 @@
+-- Contract step of 005-amounts-in-minor-units.sql: drops the double amount columns and the triggers that kept
+-- them in step with the minor-unit columns.
+-- Run only once no instance older than the minor-units release is running; it can't be undone.
+use finance;
+
+drop trigger if exists invoice_amount_minor_insert;
+drop trigger if exists invoice_amount_minor_update;
+drop trigger if exists account_outstanding_amount_minor_update;
+
+alter table invoice drop column if exists amount;
+alter table account drop column if exists outstanding_amount;
@@ -0,0 +1,7 @@
+-- Upgrades an existing finance database to publish the id of the evicted account or invoice with each cache
+-- invalidation, so that other instances evict that one entry from their second-level cache.
+-- New databases get this column from mysql-migrations.sql. Rows written without it are still handled.
+use finance;
+
+alter table cache_invalidation
+    add column if not exists entity_id bigint null;
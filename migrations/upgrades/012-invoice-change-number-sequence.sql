@@ -0,0 +1,15 @@
+-- Upgrades an existing finance database to take invoice change numbers from a sequence rather than the
+-- invoice_change row of sequence_block, whose lock made every invoice write commit one at a time.
+-- Each value of the sequence stands for 1000 numbers, which must match InvoiceChangeSequence.NUMBERS_PER_TAKE.
+-- Stop every instance older than this release first, as they would go on numbering changes from the row.
+use finance;
+
+set @start = greatest(
+        coalesce((select next_value from sequence_block where name = 'invoice_change'), 1),
+        coalesce((select max(change_sequence) from invoice), 0) + 1);
+set @create_sequence = concat('create sequence if not exists invoice_change_seq start with ', @start, ' increment by 1000');
+prepare create_sequence from @create_sequence;
+execute create_sequence;
+deallocate prepare create_sequence;
+
+delete from sequence_block where name = 'invoice_change';
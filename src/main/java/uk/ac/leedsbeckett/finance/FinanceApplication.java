@@ -2,8 +2,12 @@ package uk.ac.leedsbeckett.finance;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication //provides component scanning, autoconfiguration and property support
+@EnableScheduling
+@EnableCaching
 public class FinanceApplication {
 
     public static void main(String[] args) {
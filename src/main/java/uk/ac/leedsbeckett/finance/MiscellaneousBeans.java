@@ -1,12 +1,17 @@
 package uk.ac.leedsbeckett.finance;
 
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
 import org.springframework.context.MessageSource;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.support.ReloadableResourceBundleMessageSource;
+import org.springframework.hateoas.mediatype.hal.HalMediaTypeConfiguration;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
 import org.springframework.web.servlet.LocaleResolver;
 import org.springframework.web.servlet.i18n.SessionLocaleResolver;
@@ -43,6 +48,23 @@ class MiscellaneousBeans {
         return sessionLocaleResolver;
     }
 
+    // The filters that leave out the invoice and account fields not picked with ?fields=
+    @Bean
+    public Jackson2ObjectMapperBuilderCustomizer sparseFieldsCustomizer() {
+        return builder -> builder
+                .mixIn(Invoice.class, SparseFields.InvoiceMixin.class)
+                .mixIn(Account.class, SparseFields.AccountMixin.class)
+                .filters(SparseFields.filters());
+    }
+
+    // application/cbor for internal callers: the same HAL documents as application/hal+json, with the same
+    // Jackson settings, written in binary. Replaces the converter Spring MVC adds for CBOR, which knows no HAL.
+    @Bean
+    public MappingJackson2CborHttpMessageConverter halCborHttpMessageConverter(Jackson2ObjectMapperBuilder builder,
+                                                                               HalMediaTypeConfiguration hal) {
+        return new MappingJackson2CborHttpMessageConverter(hal.configureObjectMapper(builder.factory(new CBORFactory()).build()));
+    }
+
     @Bean
     CommandLineRunner initDatabase(InvoiceRepository invoiceRepository, AccountRepository accountRepository) {
         return args -> {
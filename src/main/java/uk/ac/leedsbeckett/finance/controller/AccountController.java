@@ -1,28 +1,56 @@
 package uk.ac.leedsbeckett.finance.controller;
 
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.hateoas.CollectionModel;
 import org.springframework.hateoas.EntityModel;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import uk.ac.leedsbeckett.finance.model.Account;
+import uk.ac.leedsbeckett.finance.model.AccountFilter;
+import uk.ac.leedsbeckett.finance.model.BatchResult;
+import uk.ac.leedsbeckett.finance.model.LookupResult;
+import uk.ac.leedsbeckett.finance.service.AccountBatchService;
 import uk.ac.leedsbeckett.finance.service.AccountService;
 
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.StreamSupport;
 
 @RestController
 public
 class AccountController {
 
+    static final String TEXT_CSV_VALUE = "text/csv";
+    private static final String CSV_HEADER = "studentId";
+
     private final AccountService accountService;
+    private final AccountBatchService accountBatchService;
+    private final ObjectMapper objectMapper;
 
-    AccountController(AccountService accountService) {
+    AccountController(AccountService accountService, AccountBatchService accountBatchService, ObjectMapper objectMapper) {
         this.accountService = accountService;
+        this.accountBatchService = accountBatchService;
+        this.objectMapper = objectMapper;
     }
 
     @GetMapping("/accounts")
-    public CollectionModel<EntityModel<Account>> all() {
-        return accountService.getAllAccounts();
+    public CollectionModel<EntityModel<Account>> all(@RequestParam(required = false) Long after,
+                                                     @RequestParam(required = false) Long before,
+                                                     @RequestParam(required = false) Integer size,
+                                                     @RequestParam(required = false) String studentIdPrefix,
+                                                     @RequestParam(required = false) Boolean hasOutstandingBalance,
+                                                     @RequestParam(required = false) String fields,
+                                                     @RequestParam(required = false) String links) {
+        return accountService.getAllAccounts(new AccountFilter(studentIdPrefix, hasOutstandingBalance), after, before, size, fields, links);
     }
 
     @PostMapping("/accounts")
@@ -30,11 +58,39 @@ class AccountController {
         return accountService.createNewAccount(newAccount);
     }
 
+    /**
+     * Imports one account per line. The first column of each line is the student ID;
+     * an optional studentId header line and blank lines are skipped.
+     */
+    @PostMapping(value = "/accounts/import", consumes = TEXT_CSV_VALUE)
+    ResponseEntity<BatchResult> importAccountsFromCsv(InputStream body) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        return ResponseEntity.ok(accountBatchService.importAccounts(reader.lines()
+                .filter(line -> !line.isBlank())
+                .map(line -> line.split(",", -1)[0].replace("\"", "").trim())
+                .filter(studentId -> !CSV_HEADER.equalsIgnoreCase(studentId))
+                .iterator()));
+    }
+
+    @PostMapping(value = "/accounts/import", consumes = InvoiceController.APPLICATION_NDJSON_VALUE)
+    ResponseEntity<BatchResult> importAccountsFromNdjson(InputStream body) throws IOException {
+        MappingIterator<Account> accounts = objectMapper.readerFor(Account.class).readValues(body);
+        return ResponseEntity.ok(accountBatchService.importAccounts(
+                StreamSupport.stream(Spliterators.spliteratorUnknownSize(accounts, Spliterator.ORDERED), false)
+                        .map(account -> account == null ? null : account.getStudentId())
+                        .iterator()));
+    }
+
     @GetMapping("/accounts/student/{studentId}")
     public EntityModel<Account> getStudentAccount(@PathVariable String studentId) {
         return accountService.getAccountByStudentId(studentId);
     }
 
+    @PostMapping("/accounts/lookup")
+    public LookupResult<Account> lookup(@RequestBody List<String> studentIds) {
+        return accountService.lookupAccounts(studentIds);
+    }
+
     @GetMapping("/accounts/{id}")
     public EntityModel<Account> one(@PathVariable Long id) {
         return accountService.getAccountById(id);
@@ -0,0 +1,209 @@
+package uk.ac.leedsbeckett.finance.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.hateoas.MediaTypes;
+import org.springframework.hateoas.mediatype.problem.Problem;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+import org.springframework.web.util.UrlPathHelper;
+import uk.ac.leedsbeckett.finance.model.IdempotencyRecord;
+import uk.ac.leedsbeckett.finance.service.IdempotencyStore;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+/**
+ * Makes creating and paying invoices safe to retry. When a request carries an Idempotency-Key header, its
+ * response is stored under the key, and a retry with the same key gets that response back, marked with an
+ * Idempotent-Replayed header, without the invoice being created or paid again.
+ * <p>
+ * A key reused for a different method, path or body is rejected with 422, and a retry that arrives while the
+ * original request is still being handled gets 409. Server errors are not stored, so the next retry is handled
+ * afresh.
+ */
+@Component
+public class IdempotencyFilter extends OncePerRequestFilter {
+
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    public static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
+
+    private static final Map<String, String> IDEMPOTENT_ENDPOINTS = Map.of(
+            "/invoices", "POST",
+            "/invoices/*/pay", "PUT");
+    private static final AntPathMatcher PATH_MATCHER = new AntPathMatcher();
+    private static final UrlPathHelper PATH_HELPER = new UrlPathHelper();
+
+    private final IdempotencyStore store;
+    private final ObjectMapper objectMapper;
+
+    IdempotencyFilter(IdempotencyStore store, ObjectMapper objectMapper) {
+        this.store = store;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (request.getHeader(IDEMPOTENCY_KEY) == null) {
+            return true;
+        }
+        String path = PATH_HELPER.getPathWithinApplication(request);
+        return IDEMPOTENT_ENDPOINTS.entrySet().stream()
+                .noneMatch(endpoint -> endpoint.getValue().equals(request.getMethod())
+                        && PATH_MATCHER.match(endpoint.getKey(), path));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String key = request.getHeader(IDEMPOTENCY_KEY).trim();
+        if (key.isEmpty() || key.length() > IdempotencyRecord.MAX_KEY_LENGTH) {
+            problem(response, HttpStatus.BAD_REQUEST,
+                    "The " + IDEMPOTENCY_KEY + " header must have between 1 and " + IdempotencyRecord.MAX_KEY_LENGTH + " characters.");
+            return;
+        }
+        byte[] body = StreamUtils.copyToByteArray(request.getInputStream());
+        String fingerprint = fingerprint(request, body);
+
+        IdempotencyRecord existing = store.reserve(key, fingerprint);
+        if (existing != null) {
+            if (!existing.getFingerprint().equals(fingerprint)) {
+                problem(response, HttpStatus.UNPROCESSABLE_ENTITY,
+                        "The " + IDEMPOTENCY_KEY + " " + key + " was already used for a different request.");
+            } else if (!existing.isCompleted()) {
+                problem(response, HttpStatus.CONFLICT,
+                        "A request with the " + IDEMPOTENCY_KEY + " " + key + " is still being handled.");
+            } else {
+                replay(existing, response);
+            }
+            return;
+        }
+
+        ContentCachingResponseWrapper captured = new ContentCachingResponseWrapper(response);
+        try {
+            filterChain.doFilter(new CachedBodyRequest(request, body), captured);
+        } catch (IOException | ServletException | RuntimeException exception) {
+            store.release(key);
+            throw exception;
+        }
+        if (captured.getStatus() >= HttpStatus.INTERNAL_SERVER_ERROR.value()) {
+            store.release(key);
+        } else {
+            IdempotencyRecord record = new IdempotencyRecord(key, fingerprint, null, null);
+            record.setStatus(captured.getStatus());
+            record.setContentType(captured.getContentType());
+            record.setLocation(captured.getHeader(HttpHeaders.LOCATION));
+            record.setBody(captured.getContentAsByteArray());
+            store.complete(record);
+        }
+        captured.copyBodyToResponse();
+    }
+
+    private void replay(IdempotencyRecord record, HttpServletResponse response) throws IOException {
+        response.setStatus(record.getStatus());
+        response.setHeader(IDEMPOTENT_REPLAYED, "true");
+        if (record.getContentType() != null) {
+            response.setContentType(record.getContentType());
+        }
+        if (record.getLocation() != null) {
+            response.setHeader(HttpHeaders.LOCATION, record.getLocation());
+        }
+        if (record.getBody() != null) {
+            response.setContentLength(record.getBody().length);
+            response.getOutputStream().write(record.getBody());
+        }
+    }
+
+    private void problem(HttpServletResponse response, HttpStatus status, String detail) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType(MediaTypes.HTTP_PROBLEM_DETAILS_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), Problem.create()
+                .withTitle(status.getReasonPhrase())
+                .withDetail(detail));
+    }
+
+    private static String fingerprint(HttpServletRequest request, byte[] body) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((request.getMethod() + ' ' + PATH_HELPER.getPathWithinApplication(request) + '\n')
+                    .getBytes(StandardCharsets.UTF_8));
+            digest.update(body);
+            return String.format("%064x", new BigInteger(1, digest.digest()));
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException("SHA-256 is not available", exception);
+        }
+    }
+
+    /**
+     * Hands the body, already read for the fingerprint, on to the controller.
+     */
+    private static final class CachedBodyRequest extends HttpServletRequestWrapper {
+
+        private final byte[] body;
+
+        private CachedBodyRequest(HttpServletRequest request, byte[] body) {
+            super(request);
+            this.body = body;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream input = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public boolean isFinished() {
+                    return input.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener readListener) {
+                    // The whole body is already in memory, so it is available at once
+                    try {
+                        if (!isFinished()) {
+                            readListener.onDataAvailable();
+                        }
+                        readListener.onAllDataRead();
+                    } catch (IOException exception) {
+                        readListener.onError(exception);
+                    }
+                }
+
+                @Override
+                public int read() {
+                    return input.read();
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) {
+                    return input.read(buffer, offset, length);
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() throws UnsupportedEncodingException {
+            String encoding = getCharacterEncoding() == null ? StandardCharsets.UTF_8.name() : getCharacterEncoding();
+            return new BufferedReader(new InputStreamReader(getInputStream(), encoding));
+        }
+    }
+}
@@ -1,25 +1,86 @@
 package uk.ac.leedsbeckett.finance.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.hateoas.CollectionModel;
 import org.springframework.hateoas.EntityModel;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import uk.ac.leedsbeckett.finance.model.BatchResult;
+import uk.ac.leedsbeckett.finance.model.CancellationFilter;
+import uk.ac.leedsbeckett.finance.model.CancellationResult;
+import uk.ac.leedsbeckett.finance.model.ExportFormat;
 import uk.ac.leedsbeckett.finance.model.Invoice;
+import uk.ac.leedsbeckett.finance.model.InvoiceChangePage;
+import uk.ac.leedsbeckett.finance.model.InvoiceFilter;
+import uk.ac.leedsbeckett.finance.model.LookupResult;
+import uk.ac.leedsbeckett.finance.model.Status;
+import uk.ac.leedsbeckett.finance.model.Type;
+import uk.ac.leedsbeckett.finance.service.InvoiceBatchService;
+import uk.ac.leedsbeckett.finance.service.InvoiceExporter;
 import uk.ac.leedsbeckett.finance.service.InvoiceService;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.List;
+
 @RestController
 public
 class InvoiceController {
 
+    static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
     private final InvoiceService invoiceService;
+    private final InvoiceBatchService invoiceBatchService;
+    private final InvoiceExporter invoiceExporter;
+    private final ObjectMapper objectMapper;
 
-    InvoiceController(InvoiceService invoiceService) {
+    InvoiceController(InvoiceService invoiceService, InvoiceBatchService invoiceBatchService,
+                      InvoiceExporter invoiceExporter, ObjectMapper objectMapper) {
         this.invoiceService = invoiceService;
+        this.invoiceBatchService = invoiceBatchService;
+        this.invoiceExporter = invoiceExporter;
+        this.objectMapper = objectMapper;
     }
 
     @GetMapping("/invoices")
-    public CollectionModel<EntityModel<Invoice>> all() {
-        return invoiceService.getAllInvoices();
+    public CollectionModel<EntityModel<Invoice>> all(@RequestParam(required = false) Long after,
+                                                     @RequestParam(required = false) Long before,
+                                                     @RequestParam(required = false) Integer size,
+                                                     @RequestParam(required = false) Status status,
+                                                     @RequestParam(required = false) Type type,
+                                                     @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate dueFrom,
+                                                     @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate dueTo,
+                                                     @RequestParam(required = false) String studentId,
+                                                     @RequestParam(required = false) Double minAmount,
+                                                     @RequestParam(required = false) Double maxAmount,
+                                                     @RequestParam(required = false) String fields,
+                                                     @RequestParam(required = false) String links) {
+        return invoiceService.getAllInvoices(new InvoiceFilter(status, type, dueFrom, dueTo, studentId, minAmount, maxAmount),
+                after, before, size, fields, links);
+    }
+
+    @GetMapping("/invoices/export")
+    public ResponseEntity<StreamingResponseBody> export(@RequestParam(defaultValue = "NDJSON") ExportFormat format,
+                                                        @RequestParam(required = false) Status status,
+                                                        @RequestParam(required = false) Type type,
+                                                        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate dueFrom,
+                                                        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate dueTo) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(format.getMediaType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"invoices." + format.getExtension() + "\"")
+                .body(invoiceExporter.export(new InvoiceFilter(status, type, dueFrom, dueTo, null, null, null), format));
+    }
+
+    @GetMapping("/invoices/changes")
+    public InvoiceChangePage changes(@RequestParam(required = false) Long since,
+                                     @RequestParam(required = false) Integer size) {
+        return invoiceService.getInvoiceChanges(since, size);
     }
 
     @GetMapping("/invoices/{id}")
@@ -32,11 +93,32 @@ class InvoiceController {
         return invoiceService.getInvoiceByReference(reference);
     }
 
+    @PostMapping("/invoices/lookup")
+    public LookupResult<Invoice> lookup(@RequestBody List<String> references) {
+        return invoiceService.lookupInvoices(references);
+    }
+
     @PostMapping("/invoices")
     ResponseEntity<?> newInvoice(@RequestBody Invoice invoice) {
         return invoiceService.createNewInvoice(invoice);
     }
 
+    @PostMapping(value = "/invoices/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    ResponseEntity<BatchResult> newInvoices(@RequestBody List<Invoice> invoices) {
+        return ResponseEntity.ok(invoiceBatchService.createNewInvoices(invoices.iterator()));
+    }
+
+    @PostMapping(value = "/invoices/batch", consumes = APPLICATION_NDJSON_VALUE)
+    ResponseEntity<BatchResult> newInvoices(InputStream body) throws IOException {
+        Iterator<Invoice> invoices = objectMapper.readerFor(Invoice.class).readValues(body);
+        return ResponseEntity.ok(invoiceBatchService.createNewInvoices(invoices));
+    }
+
+    @PostMapping("/invoices/cancellations")
+    ResponseEntity<CancellationResult> cancelAll(@RequestBody CancellationFilter filter) {
+        return ResponseEntity.ok(invoiceBatchService.cancelInvoices(filter));
+    }
+
     @DeleteMapping("/invoices/{reference}/cancel")
     public ResponseEntity<?> cancel(@PathVariable String reference) {
         return invoiceService.cancel(reference);
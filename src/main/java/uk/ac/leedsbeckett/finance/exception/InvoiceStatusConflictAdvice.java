@@ -0,0 +1,26 @@
+package uk.ac.leedsbeckett.finance.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ControllerAdvice
+public class InvoiceStatusConflictAdvice {
+
+    /**
+     * ResponseBody signals that this advice is rendered straight into the response body.     *
+     * ExceptionHandler configures the advice to only respond if an InvoiceStatusConflictException is thrown.     *
+     * ResponseStatus says to issue an HttpStatus.CONFLICT, i.e. an HTTP 409.
+     *
+     * The body of the advice generates the content.
+     */
+
+    @ResponseBody
+    @ExceptionHandler(InvoiceStatusConflictException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    String invoiceStatusConflictHandler(InvoiceStatusConflictException ex) {
+        return ex.getMessage();
+    }
+}
@@ -0,0 +1,8 @@
+package uk.ac.leedsbeckett.finance.exception;
+
+public class InvoiceStatusConflictException extends RuntimeException {
+
+    public InvoiceStatusConflictException(String reference) {
+        super("Invoice " + reference + " was changed by another request. Please try again.");
+    }
+}
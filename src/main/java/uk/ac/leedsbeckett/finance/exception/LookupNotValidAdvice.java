@@ -0,0 +1,26 @@
+package uk.ac.leedsbeckett.finance.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ControllerAdvice
+public class LookupNotValidAdvice {
+
+    /**
+     * ResponseBody signals that this advice is rendered straight into the response body.
+     * ExceptionHandler configures the advice to only respond if a LookupNotValidException is thrown.
+     * ResponseStatus says to issue an HttpStatus.BAD_REQUEST, i.e. an HTTP 400.
+     *
+     * The body of the advice generates the content.
+     */
+
+    @ResponseBody
+    @ExceptionHandler(LookupNotValidException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    String lookupNotValidHandler(LookupNotValidException ex) {
+        return ex.getMessage();
+    }
+}
@@ -0,0 +1,8 @@
+package uk.ac.leedsbeckett.finance.exception;
+
+public class LookupNotValidException extends RuntimeException {
+
+    public LookupNotValidException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,8 @@
+package uk.ac.leedsbeckett.finance.exception;
+
+public class PageRequestNotValidException extends RuntimeException {
+
+    public PageRequestNotValidException(String message) {
+        super(message);
+    }
+}
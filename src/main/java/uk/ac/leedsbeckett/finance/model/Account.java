@@ -1,6 +1,7 @@
 package uk.ac.leedsbeckett.finance.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
 import lombok.ToString;
 
@@ -10,6 +11,7 @@ import java.util.List;
 import javax.persistence.*;
 
 @Entity
+@Cacheable
 @Data
 public class Account {
 
@@ -18,12 +20,19 @@ public class Account {
     Long id;
     @Column(unique = true)
     private String studentId;
-    @OneToMany(fetch = FetchType.LAZY, cascade = CascadeType.ALL, orphanRemoval = true)
+    @OneToMany(mappedBy = "account", fetch = FetchType.LAZY, cascade = CascadeType.ALL, orphanRemoval = true)
     @ToString.Exclude
     @JsonIgnore
     private List<Invoice> invoiceList = new ArrayList<>();
-    @Transient
-    private boolean hasOutstandingBalance;
+    // Running totals of the OUTSTANDING invoices, maintained by InvoiceService through
+    // AccountRepository.adjustOutstanding and rebuilt by OutstandingBalanceReconciler.
+    // They are never part of an entity update, so a stale Account cannot overwrite them.
+    @Column(nullable = false, updatable = false)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private long outstandingCount;
+    @Column(name = "outstanding_amount_minor", nullable = false, updatable = false)
+    @JsonIgnore
+    private long outstandingAmountMinor;
 
     public Account() {
     }
@@ -31,4 +40,26 @@ public class Account {
     public Account(String studentId) {
         this.studentId = studentId;
     }
+
+    /**
+     * Returns a detached copy without the invoice list, for caches that hand each reader its own instance.
+     * A copy is only for reading and must never be saved, as its empty invoice list would remove the invoices.
+     */
+    public Account copy() {
+        Account copy = new Account(studentId);
+        copy.setId(id);
+        copy.setOutstandingCount(outstandingCount);
+        copy.setOutstandingAmountMinor(outstandingAmountMinor);
+        return copy;
+    }
+
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    public double getOutstandingAmount() {
+        return Money.toMajor(outstandingAmountMinor);
+    }
+
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    public boolean isHasOutstandingBalance() {
+        return outstandingCount > 0;
+    }
 }
\ No newline at end of file
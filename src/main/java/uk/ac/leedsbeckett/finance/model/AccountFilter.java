@@ -0,0 +1,18 @@
+package uk.ac.leedsbeckett.finance.model;
+
+import lombok.Data;
+
+@Data
+public class AccountFilter {
+
+    private String studentIdPrefix;
+    private Boolean hasOutstandingBalance;
+
+    public AccountFilter() {
+    }
+
+    public AccountFilter(String studentIdPrefix, Boolean hasOutstandingBalance) {
+        this.studentIdPrefix = studentIdPrefix;
+        this.hasOutstandingBalance = hasOutstandingBalance;
+    }
+}
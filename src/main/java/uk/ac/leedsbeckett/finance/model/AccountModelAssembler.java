@@ -1,6 +1,9 @@
 package uk.ac.leedsbeckett.finance.model;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.hateoas.Link;
 import org.springframework.hateoas.server.RepresentationModelAssembler;
 import org.springframework.stereotype.Component;
 import uk.ac.leedsbeckett.finance.controller.AccountController;
@@ -13,14 +16,49 @@ import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
 public
 class AccountModelAssembler implements RepresentationModelAssembler<Account, EntityModel<Account>> {
 
+    private final boolean cachedLinks;
+    private final LinkTemplate self;
+
+    AccountModelAssembler(@Value("${finance.links.cached:true}") boolean cachedLinks) {
+        this.cachedLinks = cachedLinks;
+        this.self = LinkTemplate.of(AccountController.class, studentId -> methodOn(AccountController.class).getStudentAccount(studentId));
+    }
+
     @Override
     public EntityModel<Account> toModel(Account account) {
         if (account.getId() == null || account.getId() == 0) {
             throw new AccountNotValidException();
         }
+        return withLinks(account);
+    }
+
+    /**
+     * Model of an account loaded with only some of its fields for a sparse fieldset. Its links need only the
+     * student ID; with links false, the model has none.
+     */
+    public EntityModel<Account> toSparseModel(Account account, boolean links) {
+        if (!links) {
+            return EntityModel.of(account);
+        }
+        if (account.getStudentId() == null) {
+            throw new AccountNotValidException();
+        }
+        return withLinks(account);
+    }
+
+    private EntityModel<Account> withLinks(Account account) {
+        if (cachedLinks) {
+            return EntityModel.of(account,
+                    self.expand(account.getStudentId(), IanaLinkRelations.SELF),
+                    LinkTemplate.perRequest("accounts", AccountModelAssembler::accountsLink));
+        }
         return EntityModel.of(account,
                 linkTo(methodOn(AccountController.class).getStudentAccount(account.getStudentId())).withSelfRel(),
-                linkTo(methodOn(AccountController.class).all()).withRel("accounts"));
+                accountsLink());
+    }
+
+    private static Link accountsLink() {
+        return linkTo(methodOn(AccountController.class).all(null, null, null, null, null, null, null)).withRel("accounts").expand();
     }
 
 }
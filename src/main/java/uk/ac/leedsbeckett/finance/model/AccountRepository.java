@@ -1,9 +1,34 @@
 package uk.ac.leedsbeckett.finance.model;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
 import java.util.List;
 
-public interface AccountRepository extends JpaRepository<Account, Long> {
+public interface AccountRepository extends JpaRepository<Account, Long>, AccountRepositoryCustom {
+    @QueryHints(@QueryHint(name = org.hibernate.annotations.QueryHints.CACHEABLE, value = "true"))
     Account findAccountByStudentId (String studentId);
+    List<Account> findAccountsByStudentIdIn(Collection<String> studentIds);
+
+    @Query("select a.studentId from Account a where a.studentId in :studentIds")
+    List<String> findExistingStudentIds(@Param("studentIds") Collection<String> studentIds);
+
+    @Modifying
+    @Query(value = "update account set " +
+            "outstanding_count = (select count(*) from invoice i where i.account_fk = account.id and i.status = :status), " +
+            "outstanding_amount_minor = (select coalesce(sum(i.amount_minor), 0) from invoice i where i.account_fk = account.id and i.status = :status) " +
+            "where account.id > :fromId and account.id <= :toId", nativeQuery = true)
+    int reconcileOutstanding(@Param("status") int status, @Param("fromId") long fromId, @Param("toId") long toId);
+
+    @Modifying(clearAutomatically = true)
+    @Query("delete from Account a where a.id = :id")
+    int deleteAccountById(@Param("id") Long id);
+
+    @Query("select max(a.id) from Account a")
+    Long findMaxId();
 }
\ No newline at end of file
@@ -0,0 +1,40 @@
+package uk.ac.leedsbeckett.finance.model;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+public interface AccountRepositoryCustom {
+
+    /**
+     * Keyset (seek) pagination on the account id, so the cost of a page does not depend on how deep it is.
+     * At most one of after and before should be given. Results are always returned in ascending id order.
+     * The accounts are built from the selected columns and are not managed, so reading them never loads anything.
+     */
+    List<Account> findPage(AccountFilter filter, Long after, Long before, int limit);
+
+    /**
+     * As findPage, but selects only the id and the columns of the given fields (see SparseFields.ACCOUNT).
+     * The other properties of the accounts are left unset.
+     */
+    List<Account> findPage(AccountFilter filter, Set<String> fields, Long after, Long before, int limit);
+
+    /**
+     * Adds count and amountMinor to the outstanding totals of one account with a single relative UPDATE.
+     * The statement goes through JDBC and evicts only this account from the second-level cache, where a
+     * JPQL bulk update would evict every account and every cached query result.
+     */
+    int adjustOutstanding(Long id, long count, long amountMinor);
+
+    /**
+     * Adds (sign 1) or removes (sign -1) the given invoices from their accounts' outstanding totals,
+     * with one batched UPDATE statement per account.
+     */
+    void adjustOutstanding(Collection<Invoice> invoices, int sign);
+
+    /**
+     * Inserts new accounts with no outstanding invoices, as a single JDBC batch.
+     * Fails as a whole if any of the student IDs already exists.
+     */
+    void insertAll(Collection<String> studentIds);
+}
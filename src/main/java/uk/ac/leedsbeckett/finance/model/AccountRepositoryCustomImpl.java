@@ -0,0 +1,139 @@
+package uk.ac.leedsbeckett.finance.model;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
+import javax.persistence.TupleElement;
+import javax.persistence.criteria.*;
+import java.util.*;
+import java.util.stream.Collectors;
+
+class AccountRepositoryCustomImpl implements AccountRepositoryCustom {
+
+    private static final char LIKE_ESCAPE = '!';
+    private static final String ADJUST_OUTSTANDING =
+            "update account set outstanding_count = outstanding_count + ?, outstanding_amount_minor = outstanding_amount_minor + ? where id = ?";
+
+    private static final String INSERT =
+            "insert into account (student_id, outstanding_count, outstanding_amount_minor) values (?, 0, 0)";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    AccountRepositoryCustomImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public List<Account> findPage(AccountFilter filter, Long after, Long before, int limit) {
+        return findPage(filter, null, after, before, limit);
+    }
+
+    @Override
+    public List<Account> findPage(AccountFilter filter, Set<String> fields, Long after, Long before, int limit) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = builder.createTupleQuery();
+        Root<Account> account = query.from(Account.class);
+
+        List<Predicate> predicates = new ArrayList<>();
+        if (after != null) {
+            predicates.add(builder.greaterThan(account.get("id"), after));
+        }
+        if (before != null) {
+            predicates.add(builder.lessThan(account.get("id"), before));
+        }
+        if (filter != null && filter.getStudentIdPrefix() != null && !filter.getStudentIdPrefix().isEmpty()) {
+            predicates.add(builder.like(account.get("studentId"), escapeLike(filter.getStudentIdPrefix()) + "%", LIKE_ESCAPE));
+        }
+        if (filter != null && filter.getHasOutstandingBalance() != null) {
+            predicates.add(filter.getHasOutstandingBalance()
+                    ? builder.greaterThan(account.get("outstandingCount"), 0L)
+                    : builder.equal(account.get("outstandingCount"), 0L));
+        }
+
+        List<Selection<?>> columns = new ArrayList<>();
+        columns.add(account.get("id").alias("id"));
+        if (fields == null || fields.contains("studentId")) {
+            columns.add(account.get("studentId").alias("studentId"));
+        }
+        if (fields == null || fields.contains("outstandingCount") || fields.contains("hasOutstandingBalance")) {
+            columns.add(account.get("outstandingCount").alias("outstandingCount"));
+        }
+        if (fields == null || fields.contains("outstandingAmount")) {
+            columns.add(account.get("outstandingAmountMinor").alias("outstandingAmount"));
+        }
+        query.multiselect(columns)
+                .where(predicates.toArray(new Predicate[0]))
+                .orderBy(before != null ? builder.desc(account.get("id")) : builder.asc(account.get("id")));
+
+        List<Account> accounts = entityManager.createQuery(query)
+                .setMaxResults(limit)
+                .getResultList().stream()
+                .map(AccountRepositoryCustomImpl::toAccount)
+                .collect(Collectors.toList());
+
+        if (before != null) {
+            Collections.reverse(accounts);
+        }
+        return accounts;
+    }
+
+    @Override
+    public int adjustOutstanding(Long id, long count, long amountMinor) {
+        int updated = jdbcTemplate.update(ADJUST_OUTSTANDING, count, amountMinor, id);
+        SecondLevelCache.evict(entityManager, Account.class, List.of(id));
+        return updated;
+    }
+
+    @Override
+    public void adjustOutstanding(Collection<Invoice> invoices, int sign) {
+        // Sorted by account id, so that concurrent batches lock account rows in the same order
+        Map<Long, long[]> counts = new TreeMap<>();
+        Map<Long, long[]> amounts = new HashMap<>();
+        for (Invoice invoice : invoices) {
+            Long accountId = invoice.getAccount().getId();
+            counts.computeIfAbsent(accountId, id -> new long[1])[0]++;
+            amounts.computeIfAbsent(accountId, id -> new long[1])[0] += invoice.getAmountMinor();
+        }
+        List<Long> accountIds = new ArrayList<>(counts.keySet());
+        jdbcTemplate.batchUpdate(ADJUST_OUTSTANDING, accountIds, accountIds.size(), (statement, accountId) -> {
+            statement.setLong(1, sign * counts.get(accountId)[0]);
+            statement.setLong(2, sign * amounts.get(accountId)[0]);
+            statement.setLong(3, accountId);
+        });
+        SecondLevelCache.evict(entityManager, Account.class, accountIds);
+    }
+
+    @Override
+    public void insertAll(Collection<String> studentIds) {
+        jdbcTemplate.batchUpdate(INSERT, studentIds, studentIds.size(),
+                (statement, studentId) -> statement.setString(1, studentId));
+        // findAccountByStudentId may have cached "no such account" for any of these student IDs
+        SecondLevelCache.evictQueryResults(entityManager);
+    }
+
+    private static Account toAccount(Tuple row) {
+        Account account = new Account();
+        for (TupleElement<?> column : row.getElements()) {
+            Object value = row.get(column);
+            switch (column.getAlias()) {
+                case "id": account.setId((Long) value); break;
+                case "studentId": account.setStudentId((String) value); break;
+                case "outstandingCount": account.setOutstandingCount((Long) value); break;
+                case "outstandingAmount": account.setOutstandingAmountMinor((Long) value); break;
+                default: throw new IllegalArgumentException(column.getAlias());
+            }
+        }
+        return account;
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("!", "!!")
+                .replace("%", "!%")
+                .replace("_", "!_");
+    }
+}
@@ -0,0 +1,26 @@
+package uk.ac.leedsbeckett.finance.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchItemResult {
+
+    private int index;
+    private String studentId;
+    private String reference;
+    private BatchOutcome outcome;
+    private String message;
+
+    public BatchItemResult() {
+    }
+
+    public BatchItemResult(int index, String studentId, String reference, BatchOutcome outcome, String message) {
+        this.index = index;
+        this.studentId = studentId;
+        this.reference = reference;
+        this.outcome = outcome;
+        this.message = message;
+    }
+}
@@ -0,0 +1,8 @@
+package uk.ac.leedsbeckett.finance.model;
+
+public enum BatchOutcome {
+    CREATED,
+    DUPLICATE,
+    INVALID,
+    FAILED
+}
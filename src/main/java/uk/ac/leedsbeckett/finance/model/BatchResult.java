@@ -0,0 +1,41 @@
+package uk.ac.leedsbeckett.finance.model;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a bulk upload: a count per outcome, and the items that were not created. Only the first
+ * MAX_FAILURES of those are kept, so the result stays the same size however many rows are uploaded.
+ */
+@Data
+public class BatchResult {
+
+    public static final int MAX_FAILURES = 1000;
+
+    private int created;
+    private int duplicate;
+    private int invalid;
+    private int failed;
+    private List<BatchItemResult> failures = new ArrayList<>();
+
+    public void add(BatchItemResult item) {
+        switch (item.getOutcome()) {
+            case CREATED:
+                created++;
+                return;
+            case DUPLICATE:
+                duplicate++;
+                break;
+            case INVALID:
+                invalid++;
+                break;
+            default:
+                failed++;
+        }
+        if (failures.size() < MAX_FAILURES) {
+            failures.add(item);
+        }
+    }
+}
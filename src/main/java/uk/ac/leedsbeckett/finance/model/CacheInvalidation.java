@@ -0,0 +1,42 @@
+package uk.ac.leedsbeckett.finance.model;
+
+import lombok.Data;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+/**
+ * An eviction from the shared entity cache, broadcast to the other application instances.
+ * A null cache key stands for the whole cache. The entity id, where given, is the id of the account or invoice
+ * cached under the key, so that receivers can evict that one entry from the second-level cache.
+ */
+@Entity
+@Table(indexes = @Index(name = "idx_cache_invalidation_created_at", columnList = "createdAt"))
+@Data
+public class CacheInvalidation {
+
+    private @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    Long id;
+    @Column(nullable = false)
+    private String cacheName;
+    private String cacheKey;
+    private Long entityId;
+    @Column(nullable = false)
+    private String origin;
+    @Column(nullable = false)
+    private Instant createdAt;
+
+    public CacheInvalidation() {
+    }
+
+    public CacheInvalidation(String cacheName, Object cacheKey) {
+        this(cacheName, cacheKey, null);
+    }
+
+    public CacheInvalidation(String cacheName, Object cacheKey, Long entityId) {
+        this.cacheName = cacheName;
+        this.cacheKey = cacheKey == null ? null : cacheKey.toString();
+        this.entityId = entityId;
+    }
+}
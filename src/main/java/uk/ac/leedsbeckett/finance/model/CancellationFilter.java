@@ -0,0 +1,28 @@
+package uk.ac.leedsbeckett.finance.model;
+
+import lombok.Data;
+
+import java.time.LocalDate;
+
+/**
+ * Selects the invoices to cancel in bulk. Only OUTSTANDING invoices can be cancelled, so status may be
+ * left out; dueBefore is exclusive.
+ */
+@Data
+public class CancellationFilter {
+
+    private Type type;
+    private Status status;
+    private LocalDate dueBefore;
+    private Long accountId;
+
+    public CancellationFilter() {
+    }
+
+    public CancellationFilter(Type type, Status status, LocalDate dueBefore, Long accountId) {
+        this.type = type;
+        this.status = status;
+        this.dueBefore = dueBefore;
+        this.accountId = accountId;
+    }
+}
@@ -0,0 +1,15 @@
+package uk.ac.leedsbeckett.finance.model;
+
+import lombok.Data;
+
+/**
+ * Counts reported by a bulk cancellation: the invoices cancelled, the accounts whose outstanding totals
+ * changed, and the chunks (transactions) it took.
+ */
+@Data
+public class CancellationResult {
+
+    private int cancelled;
+    private int accounts;
+    private int chunks;
+}
@@ -0,0 +1,49 @@
+package uk.ac.leedsbeckett.finance.model;
+
+import lombok.Data;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+/**
+ * The response to a request sent with an Idempotency-Key header, kept to be replayed when the request is retried.
+ * The fingerprint identifies the request the key was first used for. The status is null while that request is
+ * still being handled.
+ */
+@Entity
+@Table(indexes = @Index(name = "idx_idempotency_record_expires_at", columnList = "expiresAt"))
+@Data
+public class IdempotencyRecord {
+
+    public static final int MAX_KEY_LENGTH = 255;
+
+    private @Id
+    @Column(length = MAX_KEY_LENGTH)
+    String idempotencyKey;
+    @Column(nullable = false, length = 64)
+    private String fingerprint;
+    private Integer status;
+    private String contentType;
+    @Column(length = 512)
+    private String location;
+    @Lob
+    private byte[] body;
+    @Column(nullable = false)
+    private Instant createdAt;
+    @Column(nullable = false)
+    private Instant expiresAt;
+
+    public IdempotencyRecord() {
+    }
+
+    public IdempotencyRecord(String idempotencyKey, String fingerprint, Instant createdAt, Instant expiresAt) {
+        this.idempotencyKey = idempotencyKey;
+        this.fingerprint = fingerprint;
+        this.createdAt = createdAt;
+        this.expiresAt = expiresAt;
+    }
+
+    public boolean isCompleted() {
+        return status != null;
+    }
+}
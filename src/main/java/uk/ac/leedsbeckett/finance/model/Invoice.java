@@ -4,7 +4,6 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
 import lombok.ToString;
-import org.apache.commons.lang3.RandomStringUtils;
 
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.Pattern;
@@ -12,9 +11,14 @@ import javax.validation.constraints.Pattern;
 import javax.persistence.*;
 import javax.validation.constraints.Size;
 import java.time.LocalDate;
-import java.util.Locale;
 
 @Entity
+@Cacheable
+@Table(indexes = {
+        @Index(name = "idx_invoice_status_due_date", columnList = "status, dueDate"),
+        @Index(name = "idx_invoice_account_status", columnList = "account_fk, status"),
+        @Index(name = "idx_invoice_change_sequence", columnList = "change_sequence")
+})
 @Data
 public class Invoice {
 
@@ -26,11 +30,18 @@ public class Invoice {
     @Size(min = 8, max = 8, message = "{reference.size}")
     @Pattern(regexp = "[A-Z0-9]*", message = "{reference.format}")
     private String reference;
-    private Double amount;
+    // Stored in minor units; exposed to the API as a decimal amount through getAmount and setAmount
+    @Column(name = "amount_minor")
+    @JsonIgnore
+    private Long amountMinor;
     private LocalDate dueDate;
     private Type type;
     private Status status;
-    @ManyToOne
+    // Position of the invoice's last create, pay or cancel in the change feed; see InvoiceChangeSequence
+    @Column(name = "change_sequence")
+    @JsonIgnore
+    private Long changeSequence;
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name="account_fk",referencedColumnName="id")
     @ToString.Exclude
     private Account account;
@@ -40,6 +51,16 @@ public class Invoice {
         return account.getStudentId();
     }
 
+    @JsonProperty
+    public Double getAmount() {
+        return amountMinor == null ? null : Money.toMajor(amountMinor);
+    }
+
+    @JsonProperty
+    public void setAmount(Double amount) {
+        this.amountMinor = amount == null ? null : Money.toMinor(amount);
+    }
+
     @JsonProperty
     public void setAccount(Account account) {
         this.account = account;
@@ -54,17 +75,26 @@ public class Invoice {
     }
 
     public Invoice(Double amount, LocalDate dueDate, Type type, Account account) {
-        this.amount = amount;
+        setAmount(amount);
         this.dueDate = dueDate;
         this.type = type;
         this.account = account;
-        populateReference();
     }
 
-    public void populateReference() {
-        if (this.reference == null) {
-            this.reference = RandomStringUtils.random(8, true, true).toUpperCase(Locale.UK);
-        }
+    /**
+     * Returns a detached copy, with a copy of the account, for caches that hand each reader its own instance.
+     */
+    public Invoice copy() {
+        Invoice copy = new Invoice();
+        copy.setId(id);
+        copy.setReference(reference);
+        copy.setAmountMinor(amountMinor);
+        copy.setDueDate(dueDate);
+        copy.setType(type);
+        copy.setStatus(status);
+        copy.setChangeSequence(changeSequence);
+        copy.setAccount(account == null ? null : account.copy());
+        return copy;
     }
 
 }
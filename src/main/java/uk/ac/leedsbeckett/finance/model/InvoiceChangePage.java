@@ -0,0 +1,27 @@
+package uk.ac.leedsbeckett.finance.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.hateoas.CollectionModel;
+import org.springframework.hateoas.EntityModel;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of the invoice change feed, with the cursor to pass as since for the changes that follow it.
+ * An empty page keeps the cursor it was asked for.
+ */
+public class InvoiceChangePage extends CollectionModel<EntityModel<Invoice>> {
+
+    private final long cursor;
+
+    public InvoiceChangePage(List<EntityModel<Invoice>> invoices, long cursor) {
+        super(invoices, Collections.emptyList(), null);
+        this.cursor = cursor;
+    }
+
+    @JsonProperty
+    public long getCursor() {
+        return cursor;
+    }
+}
@@ -0,0 +1,39 @@
+package uk.ac.leedsbeckett.finance.model;
+
+import lombok.Data;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * The body of a webhook notification. The event id is the same for every endpoint, so that a subscriber can
+ * recognise an event delivered to it more than once.
+ */
+@Data
+public class InvoiceEvent {
+
+    private String eventId;
+    private InvoiceEventType type;
+    private Instant occurredAt;
+    private String reference;
+    private String studentId;
+    private Double amount;
+    private LocalDate dueDate;
+    private Type invoiceType;
+    private Status status;
+
+    public InvoiceEvent() {
+    }
+
+    public InvoiceEvent(String eventId, InvoiceEventType type, Instant occurredAt, Invoice invoice) {
+        this.eventId = eventId;
+        this.type = type;
+        this.occurredAt = occurredAt;
+        this.reference = invoice.getReference();
+        this.studentId = invoice.getAccount().getStudentId();
+        this.amount = invoice.getAmount();
+        this.dueDate = invoice.getDueDate();
+        this.invoiceType = invoice.getType();
+        this.status = invoice.getStatus();
+    }
+}
@@ -0,0 +1,7 @@
+package uk.ac.leedsbeckett.finance.model;
+
+public enum InvoiceEventType {
+    INVOICE_CREATED,
+    INVOICE_PAID,
+    INVOICE_CANCELLED
+}
@@ -0,0 +1,31 @@
+package uk.ac.leedsbeckett.finance.model;
+
+import lombok.Data;
+
+import java.time.LocalDate;
+
+@Data
+public class InvoiceFilter {
+
+    private Status status;
+    private Type type;
+    private LocalDate dueFrom;
+    private LocalDate dueTo;
+    private String studentId;
+    private Double minAmount;
+    private Double maxAmount;
+
+    public InvoiceFilter() {
+    }
+
+    public InvoiceFilter(Status status, Type type, LocalDate dueFrom, LocalDate dueTo,
+                         String studentId, Double minAmount, Double maxAmount) {
+        this.status = status;
+        this.type = type;
+        this.dueFrom = dueFrom;
+        this.dueTo = dueTo;
+        this.studentId = studentId;
+        this.minAmount = minAmount;
+        this.maxAmount = maxAmount;
+    }
+}
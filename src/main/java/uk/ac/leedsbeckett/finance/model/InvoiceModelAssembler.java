@@ -2,7 +2,11 @@ package uk.ac.leedsbeckett.finance.model;
 
 import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.*;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.LinkRelation;
 import org.springframework.hateoas.server.RepresentationModelAssembler;
 import org.springframework.stereotype.Component;
 import uk.ac.leedsbeckett.finance.controller.InvoiceController;
@@ -12,16 +16,59 @@ import uk.ac.leedsbeckett.finance.exception.InvoiceNotValidException;
 public
 class InvoiceModelAssembler implements RepresentationModelAssembler<Invoice, EntityModel<Invoice>> {
 
+    private static final LinkRelation CANCEL = LinkRelation.of("cancel");
+    private static final LinkRelation PAY = LinkRelation.of("pay");
+
+    private final boolean cachedLinks;
+    private final LinkTemplate self;
+    private final LinkTemplate cancel;
+    private final LinkTemplate pay;
+
+    InvoiceModelAssembler(@Value("${finance.links.cached:true}") boolean cachedLinks) {
+        this.cachedLinks = cachedLinks;
+        this.self = LinkTemplate.of(InvoiceController.class, reference -> methodOn(InvoiceController.class).one(reference));
+        this.cancel = LinkTemplate.of(InvoiceController.class, reference -> methodOn(InvoiceController.class).cancel(reference));
+        this.pay = LinkTemplate.of(InvoiceController.class, reference -> methodOn(InvoiceController.class).pay(reference));
+    }
+
     @Override
     public EntityModel<Invoice> toModel(Invoice invoice) {
 
         if (!isValid(invoice)) {
             throw new InvoiceNotValidException();
         }
+        return withLinks(invoice);
+    }
+
+    /**
+     * Model of an invoice loaded with only some of its fields for a sparse fieldset. Its links need only the
+     * reference and status; with links false, the model has none and the invoice needs only an id.
+     */
+    public EntityModel<Invoice> toSparseModel(Invoice invoice, boolean links) {
+        if (!links) {
+            return EntityModel.of(invoice);
+        }
+        if (invoice.getReference() == null || invoice.getReference().isEmpty()) {
+            throw new InvoiceNotValidException();
+        }
+        return withLinks(invoice);
+    }
+
+    private EntityModel<Invoice> withLinks(Invoice invoice) {
+        if (cachedLinks) {
+            EntityModel<Invoice> invoiceModel = EntityModel.of(invoice,
+                    self.expand(invoice.getReference(), IanaLinkRelations.SELF),
+                    LinkTemplate.perRequest("invoices", InvoiceModelAssembler::invoicesLink));
+            if (invoice.getStatus() == Status.OUTSTANDING) {
+                invoiceModel.add(cancel.expand(invoice.getReference(), CANCEL));
+                invoiceModel.add(pay.expand(invoice.getReference(), PAY));
+            }
+            return invoiceModel;
+        }
 
         EntityModel<Invoice> invoiceModel = EntityModel.of(invoice,
                 linkTo(methodOn(InvoiceController.class).one(invoice.getReference())).withSelfRel(),
-                linkTo(methodOn(InvoiceController.class).all()).withRel("invoices"));
+                invoicesLink());
 
         // Conditional links based on status of the Invoice
         if (invoice.getStatus() == Status.OUTSTANDING) {
@@ -32,6 +79,10 @@ class InvoiceModelAssembler implements RepresentationModelAssembler<Invoice, Ent
         return invoiceModel;
     }
 
+    private static Link invoicesLink() {
+        return linkTo(methodOn(InvoiceController.class).all(null, null, null, null, null, null, null, null, null, null, null, null)).withRel("invoices").expand();
+    }
+
     private boolean isValid(Invoice invoice) {
         return invoice.getId() != null
                 && invoice.getId() != 0
@@ -1,10 +1,42 @@
 package uk.ac.leedsbeckett.finance.model;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
-public interface InvoiceRepository extends JpaRepository<Invoice, Long> {
+/**
+ * Invoice read methods load the account in the same query, because every invoice representation
+ * includes the student ID. Those that only feed read endpoints load the invoices read-only, so that
+ * Hibernate keeps no snapshot of them for dirty checking.
+ */
+public interface InvoiceRepository extends JpaRepository<Invoice, Long>, InvoiceRepositoryCustom {
+    @EntityGraph(attributePaths = "account")
     List<Invoice> findInvoiceByAccount_IdAndStatus(Long accountId, Status status);
+    @EntityGraph(attributePaths = "account")
     Invoice findInvoiceByReference(String reference);
+    @EntityGraph(attributePaths = "account")
+    @QueryHints(@QueryHint(name = org.hibernate.annotations.QueryHints.READ_ONLY, value = "true"))
+    List<Invoice> findInvoicesByReferenceIn(Collection<String> references);
+
+    // A query rather than findById, whose second-level cache hits would leave the account a lazy proxy
+    @Query("select i from Invoice i join fetch i.account where i.id = :id")
+    Optional<Invoice> findWithAccountById(@Param("id") Long id);
+
+    @EntityGraph(attributePaths = "account")
+    @QueryHints(@QueryHint(name = org.hibernate.annotations.QueryHints.READ_ONLY, value = "true"))
+    List<Invoice> findByChangeSequenceGreaterThanAndChangeSequenceLessThanOrderByChangeSequence(Long after, Long before,
+                                                                                           Pageable pageable);
+
+    @Modifying(clearAutomatically = true)
+    @Query("delete from Invoice i where i.account.id = :accountId")
+    int deleteByAccountId(@Param("accountId") Long accountId);
 }
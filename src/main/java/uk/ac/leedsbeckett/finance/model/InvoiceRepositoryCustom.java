@@ -0,0 +1,55 @@
+package uk.ac.leedsbeckett.finance.model;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+public interface InvoiceRepositoryCustom {
+
+    /**
+     * Keyset (seek) pagination on the invoice id, restricted by the filter. All bounds are inclusive.
+     * At most one of after and before should be given. Results are always returned in ascending id order.
+     * The invoices are built from the selected columns, with an account holding only its id and student ID,
+     * and are not managed, so reading them never loads anything.
+     */
+    List<Invoice> findPage(InvoiceFilter filter, Long after, Long before, int limit);
+
+    /**
+     * As findPage, but selects only the id and the columns of the given fields (see SparseFields.INVOICE).
+     * The other properties of the invoices are null, and the account is only set if studentId is one of the fields.
+     */
+    List<Invoice> findPage(InvoiceFilter filter, Set<String> fields, Long after, Long before, int limit);
+
+    /**
+     * Inserts new invoices with one JDBC batch. Hibernate cannot batch inserts for IDENTITY ids,
+     * so bulk paths use this instead of saveAll. Generated ids are not read back.
+     */
+    void insertAll(List<Invoice> invoices);
+
+    /**
+     * Passes every invoice matching the status, type and due date bounds of the filter to the action, in ascending
+     * id order, reading them through a forward-only JDBC cursor fetchSize rows at a time. The invoices are built
+     * straight from the rows, with an account holding only the student ID, and are not kept anywhere.
+     */
+    void forEach(InvoiceFilter filter, int fetchSize, Consumer<Invoice> action);
+
+    /**
+     * Locks and returns, with their accounts, up to limit OUTSTANDING invoices above afterId that match the filter,
+     * in ascending id order. Must be called in a transaction, which holds the locks. The invoices are detached.
+     */
+    List<Invoice> findOutstandingForUpdate(CancellationFilter filter, long afterId, int limit);
+
+    /**
+     * Moves the invoice from one status to another and sets its change sequence, with one conditional UPDATE through
+     * JDBC. Returns 0 if the invoice was not in the from status. Like a JPQL bulk update, pending changes are flushed
+     * first and the persistence context is cleared afterwards, but only this invoice is evicted from the
+     * second-level cache rather than all of them. Must be called in a transaction.
+     */
+    int updateStatus(Long id, Status from, Status to, long changeSequence);
+
+    /**
+     * Cancels the given invoices that are still OUTSTANDING with one JDBC batch, setting the change sequence of
+     * each to the one it carries. Returns the number of invoices cancelled.
+     */
+    int cancelAll(List<Invoice> invoices);
+}
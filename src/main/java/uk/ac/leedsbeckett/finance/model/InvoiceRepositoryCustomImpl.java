@@ -0,0 +1,283 @@
+package uk.ac.leedsbeckett.finance.model;
+
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
+import javax.persistence.TupleElement;
+import javax.persistence.criteria.*;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+class InvoiceRepositoryCustomImpl implements InvoiceRepositoryCustom {
+
+    private static final String INSERT_INVOICE =
+            "insert into invoice (reference, amount_minor, due_date, type, status, account_fk, change_sequence) values (?, ?, ?, ?, ?, ?, ?)";
+    private static final String SELECT_FOR_EXPORT =
+            "select i.id, i.reference, i.amount_minor, i.due_date, i.type, i.status, a.student_id " +
+                    "from invoice i join account a on a.id = i.account_fk%s order by i.id";
+    private static final String UPDATE_STATUS =
+            "update invoice set status = ?, change_sequence = ? where id = ? and status = ?";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    InvoiceRepositoryCustomImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public List<Invoice> findPage(InvoiceFilter filter, Long after, Long before, int limit) {
+        return findPage(filter, null, after, before, limit);
+    }
+
+    @Override
+    public List<Invoice> findPage(InvoiceFilter filter, Set<String> fields, Long after, Long before, int limit) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = builder.createTupleQuery();
+        Root<Invoice> invoice = query.from(Invoice.class);
+        // Joined for the student ID, which every full invoice representation includes
+        Join<Invoice, Account> account = fields == null || fields.contains("studentId")
+                || (filter != null && filter.getStudentId() != null && !filter.getStudentId().isEmpty())
+                ? invoice.join("account", JoinType.LEFT) : null;
+
+        List<Predicate> predicates = new ArrayList<>();
+        if (after != null) {
+            predicates.add(builder.greaterThan(invoice.get("id"), after));
+        }
+        if (before != null) {
+            predicates.add(builder.lessThan(invoice.get("id"), before));
+        }
+        if (filter != null) {
+            if (filter.getStatus() != null) {
+                predicates.add(builder.equal(invoice.get("status"), filter.getStatus()));
+            }
+            if (filter.getType() != null) {
+                predicates.add(builder.equal(invoice.get("type"), filter.getType()));
+            }
+            if (filter.getDueFrom() != null) {
+                predicates.add(builder.greaterThanOrEqualTo(invoice.get("dueDate"), filter.getDueFrom()));
+            }
+            if (filter.getDueTo() != null) {
+                predicates.add(builder.lessThanOrEqualTo(invoice.get("dueDate"), filter.getDueTo()));
+            }
+            if (filter.getStudentId() != null && !filter.getStudentId().isEmpty()) {
+                predicates.add(builder.equal(account.get("studentId"), filter.getStudentId()));
+            }
+            if (filter.getMinAmount() != null) {
+                predicates.add(builder.greaterThanOrEqualTo(invoice.get("amountMinor"), Money.toMinor(filter.getMinAmount())));
+            }
+            if (filter.getMaxAmount() != null) {
+                predicates.add(builder.lessThanOrEqualTo(invoice.get("amountMinor"), Money.toMinor(filter.getMaxAmount())));
+            }
+        }
+
+        Map<String, Path<?>> columns = new LinkedHashMap<>();
+        columns.put("id", invoice.get("id"));
+        columns.put("reference", invoice.get("reference"));
+        columns.put("amount", invoice.get("amountMinor"));
+        columns.put("dueDate", invoice.get("dueDate"));
+        columns.put("type", invoice.get("type"));
+        columns.put("status", invoice.get("status"));
+        if (account != null) {
+            columns.put("studentId", account.get("studentId"));
+        }
+        if (fields == null) {
+            columns.put("changeSequence", invoice.get("changeSequence"));
+            columns.put("accountId", account.get("id"));
+        }
+        query.multiselect(columns.entrySet().stream()
+                        .filter(column -> fields == null || column.getKey().equals("id") || fields.contains(column.getKey()))
+                        .map(column -> column.getValue().alias(column.getKey()))
+                        .collect(Collectors.toList()))
+                .where(predicates.toArray(new Predicate[0]))
+                .orderBy(before != null ? builder.desc(invoice.get("id")) : builder.asc(invoice.get("id")));
+
+        List<Invoice> invoices = entityManager.createQuery(query)
+                .setMaxResults(limit)
+                .getResultList().stream()
+                .map(InvoiceRepositoryCustomImpl::toInvoice)
+                .collect(Collectors.toList());
+
+        if (before != null) {
+            Collections.reverse(invoices);
+        }
+        return invoices;
+    }
+
+    @Override
+    public void insertAll(List<Invoice> invoices) {
+        jdbcTemplate.batchUpdate(INSERT_INVOICE, invoices, invoices.size(), (statement, invoice) -> {
+            statement.setString(1, invoice.getReference());
+            statement.setLong(2, invoice.getAmountMinor());
+            statement.setDate(3, Date.valueOf(invoice.getDueDate()));
+            statement.setInt(4, invoice.getType().ordinal());
+            statement.setInt(5, invoice.getStatus().ordinal());
+            statement.setLong(6, invoice.getAccount().getId());
+            statement.setObject(7, invoice.getChangeSequence(), Types.BIGINT);
+        });
+    }
+
+    @Override
+    public void forEach(InvoiceFilter filter, int fetchSize, Consumer<Invoice> action) {
+        List<String> conditions = new ArrayList<>();
+        List<Object> arguments = new ArrayList<>();
+        if (filter != null) {
+            if (filter.getStatus() != null) {
+                conditions.add("i.status = ?");
+                arguments.add(filter.getStatus().ordinal());
+            }
+            if (filter.getType() != null) {
+                conditions.add("i.type = ?");
+                arguments.add(filter.getType().ordinal());
+            }
+            if (filter.getDueFrom() != null) {
+                conditions.add("i.due_date >= ?");
+                arguments.add(Date.valueOf(filter.getDueFrom()));
+            }
+            if (filter.getDueTo() != null) {
+                conditions.add("i.due_date <= ?");
+                arguments.add(Date.valueOf(filter.getDueTo()));
+            }
+        }
+        String sql = String.format(SELECT_FOR_EXPORT, conditions.isEmpty() ? "" : " where " + String.join(" and ", conditions));
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            // A positive fetch size makes the MariaDB driver stream the rows instead of reading them all first
+            statement.setFetchSize(fetchSize);
+            for (int i = 0; i < arguments.size(); i++) {
+                statement.setObject(i + 1, arguments.get(i));
+            }
+            return statement;
+        }, (RowCallbackHandler) resultSet -> {
+            Invoice invoice = new Invoice();
+            invoice.setId(resultSet.getLong("id"));
+            invoice.setReference(resultSet.getString("reference"));
+            invoice.setAmountMinor(resultSet.getObject("amount_minor", Long.class));
+            Date dueDate = resultSet.getDate("due_date");
+            invoice.setDueDate(dueDate == null ? null : dueDate.toLocalDate());
+            invoice.setType(ordinal(Type.values(), resultSet.getObject("type", Integer.class)));
+            invoice.setStatus(ordinal(Status.values(), resultSet.getObject("status", Integer.class)));
+            invoice.setAccount(new Account(resultSet.getString("student_id")));
+            action.accept(invoice);
+        });
+    }
+
+    @Override
+    public List<Invoice> findOutstandingForUpdate(CancellationFilter filter, long afterId, int limit) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Invoice> query = builder.createQuery(Invoice.class);
+        Root<Invoice> invoice = query.from(Invoice.class);
+        invoice.fetch("account", JoinType.INNER);
+
+        List<Predicate> predicates = new ArrayList<>();
+        predicates.add(builder.greaterThan(invoice.get("id"), afterId));
+        predicates.add(builder.equal(invoice.get("status"), Status.OUTSTANDING));
+        if (filter.getType() != null) {
+            predicates.add(builder.equal(invoice.get("type"), filter.getType()));
+        }
+        if (filter.getDueBefore() != null) {
+            predicates.add(builder.lessThan(invoice.get("dueDate"), filter.getDueBefore()));
+        }
+        if (filter.getAccountId() != null) {
+            predicates.add(builder.equal(invoice.get("account").get("id"), filter.getAccountId()));
+        }
+
+        query.select(invoice)
+                .where(predicates.toArray(new Predicate[0]))
+                .orderBy(builder.asc(invoice.get("id")));
+
+        List<Invoice> invoices = entityManager.createQuery(query)
+                .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                .setMaxResults(limit)
+                .getResultList();
+        // Detached, so that the caller's changes to them are not flushed on top of cancelAll
+        invoices.forEach(entityManager::detach);
+        return invoices;
+    }
+
+    @Override
+    public int updateStatus(Long id, Status from, Status to, long changeSequence) {
+        entityManager.flush();
+        int updated = jdbcTemplate.update(UPDATE_STATUS, to.ordinal(), changeSequence, id, from.ordinal());
+        entityManager.clear();
+        SecondLevelCache.evict(entityManager, Invoice.class, List.of(id));
+        return updated;
+    }
+
+    @Override
+    public int cancelAll(List<Invoice> invoices) {
+        if (invoices.isEmpty()) {
+            return 0;
+        }
+        int[] counts = jdbcTemplate.batchUpdate(UPDATE_STATUS, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement statement, int i) throws SQLException {
+                Invoice invoice = invoices.get(i);
+                statement.setInt(1, Status.CANCELLED.ordinal());
+                statement.setLong(2, invoice.getChangeSequence());
+                statement.setLong(3, invoice.getId());
+                statement.setInt(4, Status.OUTSTANDING.ordinal());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return invoices.size();
+            }
+        });
+        SecondLevelCache.evict(entityManager, Invoice.class,
+                invoices.stream().map(Invoice::getId).collect(Collectors.toList()));
+        return Arrays.stream(counts).map(count -> count == Statement.SUCCESS_NO_INFO ? 1 : count).sum();
+    }
+
+    private static Invoice toInvoice(Tuple row) {
+        Invoice invoice = new Invoice();
+        for (TupleElement<?> column : row.getElements()) {
+            Object value = row.get(column);
+            switch (column.getAlias()) {
+                case "id": invoice.setId((Long) value); break;
+                case "reference": invoice.setReference((String) value); break;
+                case "amount": invoice.setAmountMinor((Long) value); break;
+                case "dueDate": invoice.setDueDate((LocalDate) value); break;
+                case "type": invoice.setType((Type) value); break;
+                case "status": invoice.setStatus((Status) value); break;
+                case "changeSequence": invoice.setChangeSequence((Long) value); break;
+                case "studentId": account(invoice).setStudentId((String) value); break;
+                case "accountId": account(invoice).setId((Long) value); break;
+                default: throw new IllegalArgumentException(column.getAlias());
+            }
+        }
+        return invoice;
+    }
+
+    private static Account account(Invoice invoice) {
+        if (invoice.getAccount() == null) {
+            invoice.setAccount(new Account());
+        }
+        return invoice.getAccount();
+    }
+
+    private static <E extends Enum<E>> E ordinal(E[] values, Integer ordinal) {
+        return ordinal == null ? null : values[ordinal];
+    }
+}
@@ -0,0 +1,85 @@
+package uk.ac.leedsbeckett.finance.model;
+
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.LinkRelation;
+import org.springframework.hateoas.server.mvc.WebMvcLinkBuilder;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.util.UriUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
+
+/**
+ * Link to a controller method taking one path variable, built with linkTo(methodOn(...)) once and then expanded
+ * by string substitution. The path of the method is worked out when the template is created, and the base URL it
+ * is appended to (scheme, host, port and context path, as linkTo sees them) once per request, kept in the request
+ * attributes, so that assembling a page of models does not create a proxy and introspect the method per link.
+ * The links have the same relation and href as the ones linkTo builds, but no affordances: the API only renders HAL,
+ * which has no place for them, and looking them up per href would miss the affordance cache every time and fill it.
+ * Links that do not depend on the model are built with linkTo once per request instead.
+ */
+final class LinkTemplate {
+
+    private static final String PLACEHOLDER = "__link-template-value__";
+    private static final String ATTRIBUTE = LinkTemplate.class.getName() + '.';
+
+    private final Class<?> controller;
+    private final String path;
+
+    private LinkTemplate(Class<?> controller, String path) {
+        this.controller = controller;
+        this.path = path;
+    }
+
+    /**
+     * Template for the controller method that invocation calls, on a methodOn proxy, with the value it is given.
+     */
+    static LinkTemplate of(Class<?> controller, Function<String, Object> invocation) {
+        Object invocationValue = invocation.apply(PLACEHOLDER);
+        String href = linkTo(invocationValue).toUri().toString();
+        String path = href.substring(base(controller).length());
+        return new LinkTemplate(controller, path.startsWith("/") ? path : '/' + path);
+    }
+
+    /**
+     * Link that does not depend on the model, such as the one to the collection, built once per request.
+     */
+    static Link perRequest(String name, Supplier<Link> link) {
+        return inRequest(name, link);
+    }
+
+    Link expand(String value, LinkRelation relation) {
+        String href = currentBase() + path.replace(PLACEHOLDER, UriUtils.encodePathSegment(value, StandardCharsets.UTF_8));
+        return Link.of(href, relation);
+    }
+
+    private String currentBase() {
+        return inRequest("base." + controller.getName(), () -> base(controller));
+    }
+
+    // Outside a request, such as in scheduled jobs, the value is not kept
+    @SuppressWarnings("unchecked")
+    private static <T> T inRequest(String name, Supplier<T> value) {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return value.get();
+        }
+        T kept = (T) attributes.getAttribute(ATTRIBUTE + name, RequestAttributes.SCOPE_REQUEST);
+        if (kept == null) {
+            kept = value.get();
+            attributes.setAttribute(ATTRIBUTE + name, kept, RequestAttributes.SCOPE_REQUEST);
+        }
+        return kept;
+    }
+
+    // Without a trailing slash, so that a path starting with one can be appended to the base both of a request
+    // ("http://host/context") and of no request
+    private static String base(Class<?> controller) {
+        String base = WebMvcLinkBuilder.linkTo(controller).toUri().toString();
+        return base.endsWith("/") ? base.substring(0, base.length() - 1) : base;
+    }
+}
@@ -0,0 +1,27 @@
+package uk.ac.leedsbeckett.finance.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.RepresentationModel;
+
+import java.util.Map;
+
+/**
+ * The answer to a multi-get: every key that was asked for, in the order given, mapped to its entity,
+ * or to null when there is none.
+ */
+public class LookupResult<T> extends RepresentationModel<LookupResult<T>> {
+
+    private final Map<String, EntityModel<T>> results;
+
+    public LookupResult(Map<String, EntityModel<T>> results) {
+        this.results = results;
+    }
+
+    @JsonProperty
+    @JsonInclude(content = JsonInclude.Include.ALWAYS)
+    public Map<String, EntityModel<T>> getResults() {
+        return results;
+    }
+}
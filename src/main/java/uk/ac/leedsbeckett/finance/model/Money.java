@@ -0,0 +1,34 @@
+package uk.ac.leedsbeckett.finance.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Conversions between the decimal amounts used by the API and the whole pence (minor units) that are
+ * stored and summed. Totals are kept as longs, so they are exact and adding to them allocates nothing.
+ */
+public final class Money {
+
+    public static final int SCALE = 2;
+    private static final double MINOR_UNITS = 100.0;
+
+    private Money() {
+    }
+
+    /**
+     * Converts a decimal amount to minor units, rounding half up to the nearest penny.
+     */
+    public static long toMinor(double amount) {
+        return BigDecimal.valueOf(amount)
+                .setScale(SCALE, RoundingMode.HALF_UP)
+                .unscaledValue()
+                .longValueExact();
+    }
+
+    /**
+     * Converts minor units to the nearest double, which prints as the exact decimal amount.
+     */
+    public static double toMajor(long minor) {
+        return minor / MINOR_UNITS;
+    }
+}
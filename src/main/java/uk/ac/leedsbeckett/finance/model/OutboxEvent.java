@@ -0,0 +1,40 @@
+package uk.ac.leedsbeckett.finance.model;
+
+import lombok.Data;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+/**
+ * An invoice event waiting to be delivered to one webhook endpoint, written in the same transaction as the
+ * change it describes. A row that is neither delivered nor due for another attempt has been given up on.
+ */
+@Entity
+@Table(indexes = {
+        @Index(name = "idx_outbox_event_endpoint_due", columnList = "endpoint, deliveredAt, nextAttemptAt"),
+        @Index(name = "idx_outbox_event_delivered_at", columnList = "deliveredAt")
+})
+@Data
+public class OutboxEvent {
+
+    private @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    Long id;
+    @Column(nullable = false)
+    private String eventId;
+    @Column(nullable = false, length = 512)
+    private String endpoint;
+    @Column(nullable = false)
+    private InvoiceEventType eventType;
+    @Lob
+    @Column(nullable = false)
+    private String payload;
+    private int attempts;
+    private Instant nextAttemptAt;
+    private String claimToken;
+    private Instant deliveredAt;
+    @Column(length = 1024)
+    private String lastError;
+    @Column(nullable = false)
+    private Instant createdAt;
+}
@@ -0,0 +1,46 @@
+package uk.ac.leedsbeckett.finance.model;
+
+import org.hibernate.SessionFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.Collection;
+
+/**
+ * Keeps the Hibernate second-level and query caches in step with the JDBC batch writes, which bypass Hibernate.
+ * As with EntityCache, an eviction inside a transaction is repeated after commit, so that a concurrent reader
+ * cannot put the pre-commit state back into the cache.
+ */
+final class SecondLevelCache {
+
+    private SecondLevelCache() {
+    }
+
+    static void evict(EntityManager entityManager, Class<?> entityClass, Collection<?> ids) {
+        Cache cache = entityManager.getEntityManagerFactory().getCache();
+        Runnable eviction = () -> ids.forEach(id -> cache.evict(entityClass, id));
+        eviction.run();
+        afterCommit(eviction);
+    }
+
+    static void evictQueryResults(EntityManager entityManager) {
+        EntityManagerFactory entityManagerFactory = entityManager.getEntityManagerFactory();
+        Runnable eviction = () -> entityManagerFactory.unwrap(SessionFactory.class).getCache().evictQueryRegions();
+        eviction.run();
+        afterCommit(eviction);
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        }
+    }
+}
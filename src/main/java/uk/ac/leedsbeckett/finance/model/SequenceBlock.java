@@ -0,0 +1,29 @@
+package uk.ac.leedsbeckett.finance.model;
+
+import lombok.Data;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * The next unallocated value of a named sequence. Application instances reserve blocks of values
+ * from it, so values stay unique across instances without a database round trip per value.
+ */
+@Entity
+@Data
+public class SequenceBlock {
+
+    private @Id
+    String name;
+    @Column(nullable = false)
+    private long nextValue;
+
+    public SequenceBlock() {
+    }
+
+    public SequenceBlock(String name, long nextValue) {
+        this.name = name;
+        this.nextValue = nextValue;
+    }
+}
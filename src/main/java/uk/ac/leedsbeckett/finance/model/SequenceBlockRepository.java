@@ -0,0 +1,25 @@
+package uk.ac.leedsbeckett.finance.model;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+/**
+ * Sequences are advanced with a single UPDATE, which keeps the row locked until the transaction ends,
+ * and then read back within the same transaction. They are created with a plain INSERT rather than save,
+ * which would merge into, and reset, a row that another instance created in the meantime.
+ */
+public interface SequenceBlockRepository extends JpaRepository<SequenceBlock, String> {
+
+    @Modifying
+    @Query("update SequenceBlock s set s.nextValue = s.nextValue + :count where s.name = :name")
+    int advance(@Param("name") String name, @Param("count") long count);
+
+    @Modifying
+    @Query(value = "insert into sequence_block (name, next_value) values (:name, :nextValue)", nativeQuery = true)
+    int create(@Param("name") String name, @Param("nextValue") long nextValue);
+
+    @Query("select s.nextValue from SequenceBlock s where s.name = :name")
+    Long findNextValue(@Param("name") String name);
+}
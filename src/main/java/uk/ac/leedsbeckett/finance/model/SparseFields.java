@@ -0,0 +1,132 @@
+package uk.ac.leedsbeckett.finance.model;
+
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+import com.fasterxml.jackson.databind.ser.PropertyWriter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import uk.ac.leedsbeckett.finance.exception.PageRequestNotValidException;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Sparse fieldsets: the fields of invoices and accounts that a caller picks with ?fields= on the collection
+ * endpoints. The repositories select only the columns of those fields, and the Jackson filters registered
+ * through the mix-ins below leave the other properties out while the response of the same request is written.
+ * Responses written outside a request that picked fields, such as the export, are not affected.
+ */
+public final class SparseFields {
+
+    public static final List<String> INVOICE = List.of("id", "reference", "amount", "dueDate", "type", "status", "studentId");
+    public static final List<String> ACCOUNT = List.of("id", "studentId", "outstandingCount", "outstandingAmount", "hasOutstandingBalance");
+
+    static final String INVOICE_FILTER = "invoiceFields";
+    static final String ACCOUNT_FILTER = "accountFields";
+
+    private static final String ATTRIBUTE = SparseFields.class.getName() + '.';
+
+    private SparseFields() {
+    }
+
+    /**
+     * Parses a comma-separated ?fields= value against the fields a representation has. Returns null, meaning
+     * every field, if value is null.
+     */
+    public static Set<String> parse(String value, List<String> available) {
+        if (value == null) {
+            return null;
+        }
+        Set<String> fields = new LinkedHashSet<>();
+        for (String field : value.split(",")) {
+            String name = field.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (!available.contains(name)) {
+                throw new PageRequestNotValidException("Unknown field '" + name + "'. Fields can be: " + String.join(", ", available) + ".");
+            }
+            fields.add(name);
+        }
+        if (fields.isEmpty()) {
+            throw new PageRequestNotValidException("At least one field must be given.");
+        }
+        return fields;
+    }
+
+    /**
+     * Parses a ?links= value: none leaves the links of each item out, all (the default, if value is null) keeps them.
+     */
+    public static boolean parseLinks(String value) {
+        if (value == null || value.equals("all")) {
+            return true;
+        }
+        if (value.equals("none")) {
+            return false;
+        }
+        throw new PageRequestNotValidException("Links can be 'all' or 'none'.");
+    }
+
+    /**
+     * Restricts the invoices written in the response of the current request to the given fields.
+     */
+    public static void selectInvoiceFields(Set<String> fields) {
+        select(INVOICE_FILTER, fields);
+    }
+
+    /**
+     * Restricts the accounts written in the response of the current request to the given fields.
+     */
+    public static void selectAccountFields(Set<String> fields) {
+        select(ACCOUNT_FILTER, fields);
+    }
+
+    public static FilterProvider filters() {
+        return new SimpleFilterProvider()
+                .addFilter(INVOICE_FILTER, new RequestFieldsFilter(INVOICE_FILTER))
+                .addFilter(ACCOUNT_FILTER, new RequestFieldsFilter(ACCOUNT_FILTER));
+    }
+
+    private static void select(String filter, Set<String> fields) {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes != null && fields != null) {
+            attributes.setAttribute(ATTRIBUTE + filter, fields, RequestAttributes.SCOPE_REQUEST);
+        }
+    }
+
+    @JsonFilter(INVOICE_FILTER)
+    public interface InvoiceMixin {
+    }
+
+    @JsonFilter(ACCOUNT_FILTER)
+    public interface AccountMixin {
+    }
+
+    private static final class RequestFieldsFilter extends SimpleBeanPropertyFilter {
+
+        private final String attribute;
+
+        private RequestFieldsFilter(String filter) {
+            this.attribute = ATTRIBUTE + filter;
+        }
+
+        @Override
+        protected boolean include(PropertyWriter writer) {
+            RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+            if (attributes == null) {
+                return true;
+            }
+            Set<?> fields = (Set<?>) attributes.getAttribute(attribute, RequestAttributes.SCOPE_REQUEST);
+            return fields == null || fields.contains(writer.getName());
+        }
+
+        @Override
+        protected boolean include(BeanPropertyWriter writer) {
+            return include((PropertyWriter) writer);
+        }
+    }
+}
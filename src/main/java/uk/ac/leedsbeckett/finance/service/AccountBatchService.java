@@ -0,0 +1,131 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.ac.leedsbeckett.finance.model.*;
+
+import java.util.*;
+
+/**
+ * Bulk import of accounts. Existing student IDs are found with one query per chunk rather than
+ * one failed insert per duplicate, and the new accounts of a chunk are inserted as a single batch.
+ * A student ID repeated in a later chunk is found by that chunk's query, as its account is already saved,
+ * so only the current chunk's student IDs are held in memory.
+ */
+@Component
+public class AccountBatchService {
+
+    private final AccountRepository accountRepository;
+    private final EntityCache entityCache;
+    private final TransactionTemplate transactionTemplate;
+    private final int chunkSize;
+
+    public AccountBatchService(AccountRepository accountRepository,
+                               EntityCache entityCache,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${finance.batch.chunk-size:500}") int chunkSize) {
+        this.accountRepository = accountRepository;
+        this.entityCache = entityCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.chunkSize = chunkSize;
+    }
+
+    public BatchResult importAccounts(Iterator<String> studentIds) {
+        BatchResult result = new BatchResult();
+        List<String> chunk = new ArrayList<>(chunkSize);
+        int index = 0;
+        while (true) {
+            String studentId;
+            try {
+                if (!studentIds.hasNext()) {
+                    break;
+                }
+                studentId = studentIds.next();
+            } catch (RuntimeException exception) {
+                importChunk(index - chunk.size(), chunk, result);
+                result.add(new BatchItemResult(index, null, null, BatchOutcome.INVALID,
+                        "Could not read row; the remaining rows were not processed."));
+                return result;
+            }
+            chunk.add(studentId == null ? null : studentId.trim());
+            index++;
+            if (chunk.size() == chunkSize) {
+                importChunk(index - chunk.size(), chunk, result);
+                chunk.clear();
+            }
+        }
+        importChunk(index - chunk.size(), chunk, result);
+        return result;
+    }
+
+    private void importChunk(int firstIndex, List<String> chunk, BatchResult result) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        Set<String> candidates = new HashSet<>();
+        for (String studentId : chunk) {
+            if (studentId != null && !studentId.isEmpty()) {
+                candidates.add(studentId);
+            }
+        }
+        Set<String> seen = new HashSet<>(candidates.size());
+        Set<String> existing = candidates.isEmpty()
+                ? Collections.emptySet()
+                : new HashSet<>(accountRepository.findExistingStudentIds(candidates));
+
+        List<BatchItemResult> items = new ArrayList<>(chunk.size());
+        Map<String, BatchItemResult> created = new LinkedHashMap<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            String studentId = chunk.get(i);
+            if (studentId == null || studentId.isEmpty()) {
+                items.add(new BatchItemResult(firstIndex + i, studentId, null, BatchOutcome.INVALID,
+                        "You can't create an account without a student ID."));
+            } else if (!seen.add(studentId) || existing.contains(studentId)) {
+                items.add(new BatchItemResult(firstIndex + i, studentId, null, BatchOutcome.DUPLICATE,
+                        "An account already exists for student ID " + studentId + "."));
+            } else {
+                BatchItemResult item = new BatchItemResult(firstIndex + i, studentId, null, BatchOutcome.CREATED, null);
+                items.add(item);
+                created.put(studentId, item);
+            }
+        }
+
+        if (!created.isEmpty()) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> insertAll(created.keySet()));
+            } catch (DataIntegrityViolationException exception) {
+                // Another request created one of the accounts after the existence check; retry one row at a time
+                created.values().forEach(this::insertOne);
+            } catch (DataAccessException exception) {
+                created.values().forEach(item -> fail(item, "The chunk containing this row could not be saved."));
+            }
+        }
+        items.forEach(result::add);
+    }
+
+    private void insertOne(BatchItemResult item) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> insertAll(Collections.singletonList(item.getStudentId())));
+        } catch (DataIntegrityViolationException exception) {
+            item.setOutcome(BatchOutcome.DUPLICATE);
+            item.setMessage("An account already exists for student ID " + item.getStudentId() + ".");
+        } catch (DataAccessException exception) {
+            fail(item, "This row could not be saved.");
+        }
+    }
+
+    private void insertAll(Collection<String> studentIds) {
+        accountRepository.insertAll(studentIds);
+        // Other instances may have cached that these student IDs had no account
+        entityCache.evictAll(EntityCache.ACCOUNTS_BY_STUDENT_ID, studentIds);
+    }
+
+    private void fail(BatchItemResult item, String message) {
+        item.setOutcome(BatchOutcome.FAILED);
+        item.setMessage(message);
+    }
+}
@@ -6,12 +6,17 @@ import org.springframework.hateoas.EntityModel;
 import org.springframework.hateoas.IanaLinkRelations;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 import uk.ac.leedsbeckett.finance.controller.AccountController;
 import uk.ac.leedsbeckett.finance.exception.AccountNotFoundException;
 import uk.ac.leedsbeckett.finance.exception.AccountNotValidException;
 import uk.ac.leedsbeckett.finance.model.*;
 
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
@@ -21,36 +26,94 @@ import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
 public class AccountService {
 
     private final AccountRepository accountRepository;
-    private final AccountModelAssembler assembler;
     private final InvoiceRepository invoiceRepository;
+    private final AccountModelAssembler assembler;
+    private final RequestLookupCache lookupCache;
+    private final EntityCache entityCache;
 
-    public AccountService(AccountRepository accountRepository, AccountModelAssembler assembler, InvoiceRepository invoiceRepository) {
+    public AccountService(AccountRepository accountRepository, InvoiceRepository invoiceRepository, AccountModelAssembler assembler, RequestLookupCache lookupCache, EntityCache entityCache) {
         this.accountRepository = accountRepository;
-        this.assembler = assembler;
         this.invoiceRepository = invoiceRepository;
+        this.assembler = assembler;
+        this.lookupCache = lookupCache;
+        this.entityCache = entityCache;
     }
 
     public EntityModel<Account> getAccountById (Long id) {
-        Account account = accountRepository.findById(id)
-                .orElseThrow(() -> new AccountNotFoundException(id));
-        return assembler.toModel(populateOutstandingBalance(account));
+        Account account = entityCache.get(EntityCache.ACCOUNTS_BY_ID, id,
+                () -> accountRepository.findById(id).orElse(null));
+        if (account == null) {
+            throw new AccountNotFoundException(id);
+        }
+        return assembler.toModel(account);
     }
 
-    public CollectionModel<EntityModel<Account>> getAllAccounts() {
-        List<EntityModel<Account>> accounts = accountRepository.findAll()
+    public CollectionModel<EntityModel<Account>> getAllAccounts(AccountFilter filter, Long after, Long before, Integer size) {
+        return getAllAccounts(filter, after, before, size, null, null);
+    }
+
+    /**
+     * As getAllAccounts, but with only the comma-separated fields of each account loaded and written, if fields
+     * is given, and without the links of each account if links is none. The links to other pages are kept.
+     */
+    public CollectionModel<EntityModel<Account>> getAllAccounts(AccountFilter filter, Long after, Long before, Integer size,
+                                                                String fields, String links) {
+        Pagination.validateCursors(after, before);
+        int pageSize = Pagination.pageSize(size);
+        Set<String> selected = SparseFields.parse(fields, SparseFields.ACCOUNT);
+        boolean itemLinks = SparseFields.parseLinks(links);
+        List<Account> rows;
+        if (selected == null) {
+            rows = accountRepository.findPage(filter, after, before, pageSize + 1);
+        } else {
+            Set<String> columns = new LinkedHashSet<>(selected);
+            if (itemLinks) {
+                columns.add("studentId");
+            }
+            rows = accountRepository.findPage(filter, columns, after, before, pageSize + 1);
+            SparseFields.selectAccountFields(selected);
+        }
+        KeysetPage<Account> page = KeysetPage.of(rows, pageSize, after, before, Account::getId);
+
+        List<EntityModel<Account>> accounts = page.getItems()
                 .stream()
-                .map(this::populateOutstandingBalance)
-                .map(assembler::toModel)
+                .map(account -> selected == null && itemLinks ? assembler.toModel(account) : assembler.toSparseModel(account, itemLinks))
                 .collect(Collectors.toList());
-        return CollectionModel.of(accounts, linkTo(methodOn(AccountController.class).all()).withSelfRel());
+
+        String studentIdPrefix = filter == null ? null : filter.getStudentIdPrefix();
+        Boolean hasOutstandingBalance = filter == null ? null : filter.getHasOutstandingBalance();
+        CollectionModel<EntityModel<Account>> collection = CollectionModel.of(accounts,
+                linkTo(methodOn(AccountController.class).all(after, before, size, studentIdPrefix, hasOutstandingBalance, fields, links)).withSelfRel().expand());
+        if (page.getNextCursor() != null) {
+            collection.add(linkTo(methodOn(AccountController.class).all(page.getNextCursor(), null, size, studentIdPrefix, hasOutstandingBalance, fields, links))
+                    .withRel(IanaLinkRelations.NEXT).expand());
+        }
+        if (page.getPreviousCursor() != null) {
+            collection.add(linkTo(methodOn(AccountController.class).all(null, page.getPreviousCursor(), size, studentIdPrefix, hasOutstandingBalance, fields, links))
+                    .withRel(IanaLinkRelations.PREV).expand());
+        }
+        return collection;
     }
 
     public EntityModel<Account> getAccountByStudentId(String studentId) {
-        Account studentAccount = accountRepository.findAccountByStudentId(studentId);
+        Account studentAccount = lookupCache.get(RequestLookupCache.ACCOUNT_BY_STUDENT_ID, studentId,
+                () -> entityCache.get(EntityCache.ACCOUNTS_BY_STUDENT_ID, studentId,
+                        () -> accountRepository.findAccountByStudentId(studentId)));
         if (studentAccount == null) {
             throw new AccountNotFoundException(studentId);
         }
-        return assembler.toModel(populateOutstandingBalance(studentAccount));
+        return assembler.toModel(studentAccount);
+    }
+
+    /**
+     * Finds the accounts of many students at once, with one query per chunk of student IDs. The outstanding
+     * balance is read from the running totals on each account, so it costs no further queries.
+     */
+    public LookupResult<Account> lookupAccounts(List<String> studentIds) {
+        Map<String, EntityModel<Account>> results = new LinkedHashMap<>();
+        Lookups.byKey(studentIds, accountRepository::findAccountsByStudentIdIn, Account::getStudentId)
+                .forEach((studentId, account) -> results.put(studentId, account == null ? null : assembler.toModel(account)));
+        return new LookupResult<>(results);
     }
 
     public ResponseEntity<?> createNewAccount(Account newAccount) {
@@ -63,6 +126,7 @@ public class AccountService {
         } catch (DataIntegrityViolationException e) {
             throw new AccountNotValidException("An account already exists for student ID " + newAccount.getStudentId() + ".");
         }
+        entityCache.evictAccount(savedAccount);
         EntityModel<Account> entityModel = assembler.toModel(savedAccount);
         return ResponseEntity
                 .created(entityModel.getRequiredLink(IanaLinkRelations.SELF).toUri())
@@ -72,6 +136,8 @@ public class AccountService {
     public ResponseEntity<?> updateOrCreateAccount(Account newAccount, Long id) {
         Account updatedAccount = accountRepository.findById(id)
                 .map(account -> {
+                    lookupCache.evict(RequestLookupCache.ACCOUNT_BY_STUDENT_ID, account.getStudentId());
+                    entityCache.evictAccount(account);
                     account.setStudentId(newAccount.getStudentId());
                     return accountRepository.save(account);
                 })
@@ -79,28 +145,25 @@ public class AccountService {
                     newAccount.setId(id);
                     return accountRepository.save(newAccount);
                 });
+        entityCache.evictAccount(updatedAccount);
         EntityModel<Account> entityModel = assembler.toModel(updatedAccount);
         return ResponseEntity
                 .created(entityModel.getRequiredLink(IanaLinkRelations.SELF).toUri())
                 .body(entityModel);
     }
 
+    /**
+     * Deletes the account and its invoices with two bulk statements, without loading the invoices.
+     */
+    @Transactional
     public ResponseEntity<?> deleteAccount(Long id) {
         Account account = accountRepository.findById(id).orElseThrow(() -> new AccountNotFoundException(id));
-        accountRepository.delete(account);
+        lookupCache.evict(RequestLookupCache.ACCOUNT_BY_STUDENT_ID, account.getStudentId());
+        invoiceRepository.deleteByAccountId(id);
+        accountRepository.deleteAccountById(id);
+        entityCache.evictAccount(account);
+        // Deleting an account is rare, so drop every cached invoice rather than look up its references
+        entityCache.clear(EntityCache.INVOICES_BY_REFERENCE);
         return ResponseEntity.noContent().build();
     }
-
-    private Account populateOutstandingBalance(Account account) {
-        if (account != null) {
-            List<Invoice> invoices = invoiceRepository.findInvoiceByAccount_IdAndStatus(account.getId(), Status.OUTSTANDING);
-
-            if (invoices != null && !invoices.isEmpty()) {
-                account.setHasOutstandingBalance(invoices
-                        .stream()
-                        .anyMatch(invoice -> invoice.getStatus().equals(Status.OUTSTANDING)));
-            }
-        }
-        return account;
-    }
 }
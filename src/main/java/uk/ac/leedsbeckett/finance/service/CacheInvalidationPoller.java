@@ -0,0 +1,25 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Applies the invalidations published by other application instances to this instance's caches. A change made
+ * through another instance is evicted here within one poll interval of its commit.
+ */
+@Component
+public class CacheInvalidationPoller {
+
+    private final InvalidationTransport invalidationTransport;
+    private final EntityCache entityCache;
+
+    public CacheInvalidationPoller(InvalidationTransport invalidationTransport, EntityCache entityCache) {
+        this.invalidationTransport = invalidationTransport;
+        this.entityCache = entityCache;
+    }
+
+    @Scheduled(fixedDelayString = "${finance.cache.invalidation.poll-interval:1000}")
+    public void poll() {
+        invalidationTransport.receive().forEach(entityCache::invalidateLocally);
+    }
+}
@@ -0,0 +1,261 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import org.hibernate.SessionFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import uk.ac.leedsbeckett.finance.model.Account;
+import uk.ac.leedsbeckett.finance.model.CacheInvalidation;
+import uk.ac.leedsbeckett.finance.model.Invoice;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Application-wide cache of accounts and invoices, shared by all requests. Size, expiry and statistics are
+ * configured with spring.cache.caffeine.spec, and hit/miss/eviction counts are published as cache.* metrics.
+ * <p>
+ * Writers evict the entries they change. Inside a transaction the eviction is repeated after commit. Every
+ * eviction also bumps a generation counter for its key, shared with other keys in the same stripe; a reader
+ * that missed puts what it loaded and then evicts it again if the generation moved while it was loading, so a
+ * value loaded before a commit cannot outlive that commit's eviction. Misses are not cached.
+ * <p>
+ * The cache holds its own copies of the entities and hands every reader a further copy, so that nothing a
+ * request does to the entity it got, committed or not, can reach other requests. Write paths load the entity
+ * they change from the repository rather than from here.
+ * <p>
+ * Every eviction is also published through the InvalidationTransport, and CacheInvalidationPoller applies the
+ * evictions published by other instances with invalidateLocally, together with the matching Hibernate
+ * second-level cache entries.
+ */
+@Component
+public class EntityCache {
+
+    public static final String ACCOUNTS_BY_ID = "accountsById";
+    public static final String ACCOUNTS_BY_STUDENT_ID = "accountsByStudentId";
+    public static final String INVOICES_BY_REFERENCE = "invoicesByReference";
+
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final CacheManager cacheManager;
+    private final InvalidationTransport invalidationTransport;
+    private final EntityManagerFactory entityManagerFactory;
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    public EntityCache(CacheManager cacheManager,
+                       InvalidationTransport invalidationTransport,
+                       EntityManagerFactory entityManagerFactory) {
+        this.cacheManager = cacheManager;
+        this.invalidationTransport = invalidationTransport;
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T get(String cacheName, Object key, Supplier<T> loader) {
+        Cache cache = cacheManager.getCache(cacheName);
+        if (cache == null || key == null) {
+            return loader.get();
+        }
+        Cache.ValueWrapper cached = cache.get(key);
+        if (cached != null && cached.get() != null) {
+            return (T) copyOf(cached.get());
+        }
+        int stripe = stripe(cacheName, key);
+        long generation = generations.get(stripe);
+        T loaded = loader.get();
+        if (loaded == null) {
+            return null;
+        }
+        cache.put(key, copyOf(loaded));
+        if (generations.get(stripe) != generation) {
+            // Evicted while loading, so what was loaded may predate a commit
+            cache.evict(key);
+        }
+        return (T) copyOf(loaded);
+    }
+
+    public void evict(String cacheName, Object key) {
+        if (key != null) {
+            evictLocally(cacheName, key);
+            invalidationTransport.publish(List.of(new CacheInvalidation(cacheName, key)));
+        }
+    }
+
+    public void evictAll(String cacheName, Collection<?> keys) {
+        List<CacheInvalidation> invalidations = new ArrayList<>(keys.size());
+        for (Object key : keys) {
+            if (key != null) {
+                evictLocally(cacheName, key);
+                invalidations.add(new CacheInvalidation(cacheName, key));
+            }
+        }
+        if (!invalidations.isEmpty()) {
+            invalidationTransport.publish(invalidations);
+        }
+    }
+
+    /**
+     * Evicts an invoice that was paid or cancelled. Other instances evict just this invoice from their
+     * second-level cache.
+     */
+    public void evictInvoice(Invoice invoice) {
+        evictInvoices(List.of(invoice));
+    }
+
+    public void evictInvoices(Collection<Invoice> invoices) {
+        List<CacheInvalidation> invalidations = new ArrayList<>(invoices.size());
+        for (Invoice invoice : invoices) {
+            if (invoice.getReference() != null) {
+                evictLocally(INVOICES_BY_REFERENCE, invoice.getReference());
+                invalidations.add(new CacheInvalidation(INVOICES_BY_REFERENCE, invoice.getReference(), invoice.getId()));
+            }
+        }
+        if (!invalidations.isEmpty()) {
+            invalidationTransport.publish(invalidations);
+        }
+    }
+
+    /**
+     * Evicts an account that was created, renamed or deleted. Other instances also drop their cached
+     * findAccountByStudentId results, as the student ID may now belong to another account or to none.
+     */
+    public void evictAccount(Account account) {
+        evictAccount(account, false);
+    }
+
+    /**
+     * Evicts an account whose outstanding totals changed but whose student ID did not. Other instances evict
+     * just this account from their second-level cache and keep their cached findAccountByStudentId results.
+     */
+    public void evictAccountTotals(Account account) {
+        evictAccount(account, true);
+    }
+
+    private void evictAccount(Account account, boolean studentIdUnchanged) {
+        if (account == null) {
+            return;
+        }
+        List<CacheInvalidation> invalidations = new ArrayList<>(2);
+        if (account.getId() != null) {
+            evictLocally(ACCOUNTS_BY_ID, account.getId());
+            invalidations.add(new CacheInvalidation(ACCOUNTS_BY_ID, account.getId()));
+        }
+        if (account.getStudentId() != null) {
+            evictLocally(ACCOUNTS_BY_STUDENT_ID, account.getStudentId());
+            invalidations.add(new CacheInvalidation(ACCOUNTS_BY_STUDENT_ID, account.getStudentId(),
+                    studentIdUnchanged ? account.getId() : null));
+        }
+        if (!invalidations.isEmpty()) {
+            invalidationTransport.publish(invalidations);
+        }
+    }
+
+    public void clear(String cacheName) {
+        Cache cache = cacheManager.getCache(cacheName);
+        if (cache != null) {
+            clearLocally(cache);
+            afterCommit(() -> clearLocally(cache));
+        }
+        invalidationTransport.publish(List.of(new CacheInvalidation(cacheName, null)));
+    }
+
+    /**
+     * Applies an invalidation published by another instance, which has already committed the change.
+     */
+    public void invalidateLocally(CacheInvalidation invalidation) {
+        String cacheName = invalidation.getCacheName();
+        Object key = invalidation.getCacheKey() != null && ACCOUNTS_BY_ID.equals(cacheName)
+                ? Long.valueOf(invalidation.getCacheKey())
+                : invalidation.getCacheKey();
+        Cache cache = cacheManager.getCache(cacheName);
+        if (cache != null) {
+            if (key == null) {
+                clearLocally(cache);
+            } else {
+                evictNow(cache, key);
+            }
+        }
+
+        javax.persistence.Cache secondLevelCache = entityManagerFactory.getCache();
+        switch (cacheName) {
+            case ACCOUNTS_BY_ID:
+                if (key == null) {
+                    secondLevelCache.evict(Account.class);
+                } else {
+                    secondLevelCache.evict(Account.class, key);
+                }
+                break;
+            case ACCOUNTS_BY_STUDENT_ID:
+                if (invalidation.getEntityId() != null) {
+                    secondLevelCache.evict(Account.class, invalidation.getEntityId());
+                } else {
+                    // findAccountByStudentId results, including "no such account", are in the query cache
+                    entityManagerFactory.unwrap(SessionFactory.class).getCache().evictQueryRegions();
+                }
+                break;
+            case INVOICES_BY_REFERENCE:
+                if (key != null && invalidation.getEntityId() != null) {
+                    secondLevelCache.evict(Invoice.class, invalidation.getEntityId());
+                } else {
+                    // The second-level cache holds invoices by id, which the reference does not give
+                    secondLevelCache.evict(Invoice.class);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void evictLocally(String cacheName, Object key) {
+        Cache cache = cacheManager.getCache(cacheName);
+        if (cache == null) {
+            return;
+        }
+        evictNow(cache, key);
+        afterCommit(() -> evictNow(cache, key));
+    }
+
+    // The generation moves before the entry goes, so a reader that put after the eviction sees the change
+    private void evictNow(Cache cache, Object key) {
+        generations.incrementAndGet(stripe(cache.getName(), key));
+        cache.evict(key);
+    }
+
+    private void clearLocally(Cache cache) {
+        for (int stripe = 0; stripe < GENERATION_STRIPES; stripe++) {
+            generations.incrementAndGet(stripe);
+        }
+        cache.clear();
+    }
+
+    private static int stripe(String cacheName, Object key) {
+        return Math.floorMod(31 * cacheName.hashCode() + key.hashCode(), GENERATION_STRIPES);
+    }
+
+    private static Object copyOf(Object value) {
+        if (value instanceof Account) {
+            return ((Account) value).copy();
+        }
+        if (value instanceof Invoice) {
+            return ((Invoice) value).copy();
+        }
+        return value;
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        }
+    }
+}
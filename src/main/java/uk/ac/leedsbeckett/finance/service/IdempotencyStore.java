@@ -0,0 +1,25 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import uk.ac.leedsbeckett.finance.model.IdempotencyRecord;
+
+/**
+ * Remembers the responses to requests sent with an Idempotency-Key header until they expire.
+ */
+public interface IdempotencyStore {
+
+    /**
+     * Reserves the key for a request with the given fingerprint. Returns null if the key was free and is now
+     * reserved by the caller, otherwise the record already held under the key, completed or still in progress.
+     */
+    IdempotencyRecord reserve(String key, String fingerprint);
+
+    /**
+     * Stores the response to the request that reserved the key.
+     */
+    void complete(IdempotencyRecord record);
+
+    /**
+     * Frees a key whose request produced no response worth replaying, so that a retry handles it again.
+     */
+    void release(String key);
+}
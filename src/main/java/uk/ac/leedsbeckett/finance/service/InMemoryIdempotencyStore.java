@@ -0,0 +1,49 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import uk.ac.leedsbeckett.finance.model.IdempotencyRecord;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Keeps idempotency records in a bounded in-process cache. Retries are only recognised when they reach the
+ * instance that handled the original request, and when the cache is full the least recently used keys are
+ * forgotten before they expire; use the jdbc store behind a load balancer.
+ */
+@Component
+@ConditionalOnProperty(name = "finance.idempotency.store", havingValue = "memory", matchIfMissing = true)
+public class InMemoryIdempotencyStore implements IdempotencyStore {
+
+    private final Cache<String, IdempotencyRecord> records;
+    private final Duration ttl;
+
+    public InMemoryIdempotencyStore(@Value("${finance.idempotency.ttl:24h}") Duration ttl,
+                                    @Value("${finance.idempotency.max-entries:10000}") long maxEntries) {
+        this.ttl = ttl;
+        this.records = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttl)
+                .build();
+    }
+
+    @Override
+    public IdempotencyRecord reserve(String key, String fingerprint) {
+        Instant now = Instant.now();
+        return records.asMap().putIfAbsent(key, new IdempotencyRecord(key, fingerprint, now, now.plus(ttl)));
+    }
+
+    @Override
+    public void complete(IdempotencyRecord record) {
+        records.put(record.getIdempotencyKey(), record);
+    }
+
+    @Override
+    public void release(String key) {
+        records.invalidate(key);
+    }
+}
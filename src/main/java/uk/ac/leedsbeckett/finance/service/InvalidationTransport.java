@@ -0,0 +1,23 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import uk.ac.leedsbeckett.finance.model.CacheInvalidation;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Carries cache invalidations between application instances, so that a change made through one instance
+ * evicts the copies cached by the others.
+ */
+public interface InvalidationTransport {
+
+    /**
+     * Sends the invalidations to the other instances. Inside a transaction they are only delivered if it commits.
+     */
+    void publish(Collection<CacheInvalidation> invalidations);
+
+    /**
+     * Returns the invalidations published by other instances since the previous call.
+     */
+    List<CacheInvalidation> receive();
+}
@@ -0,0 +1,209 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.ac.leedsbeckett.finance.exception.InvoiceNotValidException;
+import uk.ac.leedsbeckett.finance.model.*;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Bulk write paths for invoices. Items are processed in chunks, each in its own transaction, so a large upload
+ * never holds one long transaction. Only the current chunk is held in memory; the result keeps counts and at most
+ * BatchResult.MAX_FAILURES of the items that were not created.
+ */
+@Component
+public class InvoiceBatchService {
+
+    private final AccountRepository accountRepository;
+    private final InvoiceRepository invoiceRepository;
+    private final ReferenceGenerator referenceGenerator;
+    private final InvoiceChangeSequence changeSequence;
+    private final InvoiceEventOutbox outbox;
+    private final EntityCache entityCache;
+    private final TransactionTemplate transactionTemplate;
+    private final int chunkSize;
+
+    public InvoiceBatchService(AccountRepository accountRepository,
+                               InvoiceRepository invoiceRepository,
+                               ReferenceGenerator referenceGenerator,
+                               InvoiceChangeSequence changeSequence,
+                               InvoiceEventOutbox outbox,
+                               EntityCache entityCache,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${finance.batch.chunk-size:500}") int chunkSize) {
+        this.accountRepository = accountRepository;
+        this.invoiceRepository = invoiceRepository;
+        this.referenceGenerator = referenceGenerator;
+        this.changeSequence = changeSequence;
+        this.outbox = outbox;
+        this.entityCache = entityCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.chunkSize = chunkSize;
+    }
+
+    public BatchResult createNewInvoices(Iterator<Invoice> invoices) {
+        BatchResult result = new BatchResult();
+        List<Invoice> chunk = new ArrayList<>(chunkSize);
+        int index = 0;
+        while (true) {
+            Invoice invoice;
+            try {
+                if (!invoices.hasNext()) {
+                    break;
+                }
+                invoice = invoices.next();
+            } catch (RuntimeException exception) {
+                createChunk(index - chunk.size(), chunk, result);
+                result.add(new BatchItemResult(index, null, null, BatchOutcome.INVALID,
+                        "Could not read item; the remaining items were not processed."));
+                return result;
+            }
+            chunk.add(invoice);
+            index++;
+            if (chunk.size() == chunkSize) {
+                createChunk(index - chunk.size(), chunk, result);
+                chunk.clear();
+            }
+        }
+        createChunk(index - chunk.size(), chunk, result);
+        return result;
+    }
+
+    private void createChunk(int firstIndex, List<Invoice> chunk, BatchResult result) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        Set<String> studentIds = chunk.stream()
+                .map(this::studentIdOf)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Map<String, Account> accounts = studentIds.isEmpty()
+                ? Collections.emptyMap()
+                : accountRepository.findAccountsByStudentIdIn(studentIds)
+                        .stream()
+                        .collect(Collectors.toMap(Account::getStudentId, Function.identity()));
+
+        List<BatchItemResult> items = new ArrayList<>(chunk.size());
+        List<BatchItemResult> created = new ArrayList<>(chunk.size());
+        List<Invoice> valid = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            Invoice invoice = chunk.get(i);
+            String studentId = studentIdOf(invoice);
+            String problem = validate(invoice, studentId, accounts);
+            if (problem != null) {
+                items.add(new BatchItemResult(firstIndex + i, studentId, null, BatchOutcome.INVALID, problem));
+                continue;
+            }
+            invoice.setAccount(accounts.get(studentId));
+            invoice.setStatus(Status.OUTSTANDING);
+            invoice.setReference(referenceGenerator.next());
+            valid.add(invoice);
+            BatchItemResult item = new BatchItemResult(firstIndex + i, studentId, invoice.getReference(), BatchOutcome.CREATED, null);
+            items.add(item);
+            created.add(item);
+        }
+
+        if (!valid.isEmpty()) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    long[] changes = changeSequence.next(valid.size());
+                    for (int i = 0; i < valid.size(); i++) {
+                        valid.get(i).setChangeSequence(changes[i]);
+                    }
+                    invoiceRepository.insertAll(valid);
+                    accountRepository.adjustOutstanding(valid, 1);
+                    outbox.recordAll(InvoiceEventType.INVOICE_CREATED, valid);
+                });
+                accounts.values().forEach(entityCache::evictAccountTotals);
+            } catch (DataAccessException exception) {
+                created.forEach(item -> {
+                    item.setOutcome(BatchOutcome.FAILED);
+                    item.setReference(null);
+                    item.setMessage("The chunk containing this item could not be saved.");
+                });
+            }
+        }
+        items.forEach(result::add);
+    }
+
+    /**
+     * Cancels every OUTSTANDING invoice that matches the filter, a chunk at a time. Each chunk's rows are locked,
+     * cancelled with one JDBC batch and taken off its accounts' outstanding totals in one transaction, with the same
+     * change feed entries, events and cache evictions as single cancellations. Only the chunk's own rows are locked,
+     * so other invoice writes go on while it runs. Invoices paid or cancelled concurrently are skipped.
+     */
+    public CancellationResult cancelInvoices(CancellationFilter filter) {
+        if (filter == null || (filter.getType() == null && filter.getDueBefore() == null && filter.getAccountId() == null)) {
+            throw new InvoiceNotValidException("You can't cancel invoices in bulk without a type, due date or account.");
+        }
+        if (filter.getStatus() != null && filter.getStatus() != Status.OUTSTANDING) {
+            throw new InvoiceNotValidException("You can't cancel an invoice that is in the " + filter.getStatus() + " status");
+        }
+        CancellationResult result = new CancellationResult();
+        Set<Long> accountIds = new HashSet<>();
+        long afterId = 0;
+        while (true) {
+            long from = afterId;
+            List<Invoice> cancelled = transactionTemplate.execute(status -> cancelChunk(filter, from));
+            if (cancelled.isEmpty()) {
+                return result;
+            }
+            afterId = cancelled.get(cancelled.size() - 1).getId();
+            result.setCancelled(result.getCancelled() + cancelled.size());
+            result.setChunks(result.getChunks() + 1);
+            cancelled.forEach(invoice -> accountIds.add(invoice.getAccount().getId()));
+            result.setAccounts(accountIds.size());
+        }
+    }
+
+    private List<Invoice> cancelChunk(CancellationFilter filter, long afterId) {
+        List<Invoice> invoices = invoiceRepository.findOutstandingForUpdate(filter, afterId, chunkSize);
+        if (invoices.isEmpty()) {
+            return invoices;
+        }
+        long[] changes = changeSequence.next(invoices.size());
+        for (int i = 0; i < invoices.size(); i++) {
+            invoices.get(i).setChangeSequence(changes[i]);
+        }
+        invoiceRepository.cancelAll(invoices);
+        invoices.forEach(invoice -> invoice.setStatus(Status.CANCELLED));
+        accountRepository.adjustOutstanding(invoices, -1);
+        outbox.recordAll(InvoiceEventType.INVOICE_CANCELLED, invoices);
+        entityCache.evictInvoices(invoices);
+        invoices.stream()
+                .collect(Collectors.toMap(invoice -> invoice.getAccount().getId(), Invoice::getAccount, (first, second) -> first))
+                .values()
+                .forEach(entityCache::evictAccountTotals);
+        return invoices;
+    }
+
+    private String validate(Invoice invoice, String studentId, Map<String, Account> accounts) {
+        if (studentId == null || !accounts.containsKey(studentId)) {
+            return "You can't create an invoice without a valid student ID.";
+        }
+        if (invoice.getAmount() == null) {
+            return "You can't create an invoice without an amount.";
+        }
+        if (invoice.getDueDate() == null) {
+            return "You can't create an invoice without a due date.";
+        }
+        if (invoice.getType() == null) {
+            return "You can't create an invoice without a type.";
+        }
+        return null;
+    }
+
+    private String studentIdOf(Invoice invoice) {
+        if (invoice == null || invoice.getAccount() == null
+                || invoice.getStudentId() == null || invoice.getStudentId().isEmpty()) {
+            return null;
+        }
+        return invoice.getStudentId();
+    }
+}
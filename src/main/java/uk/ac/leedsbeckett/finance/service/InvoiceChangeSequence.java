@@ -0,0 +1,101 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * Numbers invoice changes for the change feed, from the invoice_change_seq database sequence. Taking a value
+ * locks nothing, so invoice writes do not wait for one another.
+ * <p>
+ * Numbers are taken when a write starts but become visible when it commits, so a change can appear below one
+ * that a consumer has already read. The feed therefore only returns changes below settled(): every number below
+ * it was taken at least settle-time ago, longer than any transaction, and its write has committed or rolled back.
+ * <p>
+ * Each value of the sequence stands for NUMBERS_PER_TAKE consecutive numbers, its increment, so that a bulk chunk
+ * is numbered with one round trip; a single write leaves the rest of its numbers unused.
+ */
+@Component
+public class InvoiceChangeSequence {
+
+    static final int NUMBERS_PER_TAKE = 1000;
+    private static final String NEXT_VALUE = "select next value for invoice_change_seq";
+    private static final int MAX_SAMPLES = 16;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final long settleNanos;
+    // Pairs of a System.nanoTime() and a number such that every number below it was taken before that time, oldest first
+    private final Deque<long[]> samples = new ArrayDeque<>();
+
+    public InvoiceChangeSequence(JdbcTemplate jdbcTemplate,
+                                 @Value("${finance.changes.settle-time:60s}") Duration settleTime) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.settleNanos = settleTime.toNanos();
+    }
+
+    /**
+     * Takes the change number of a single write.
+     */
+    public long next() {
+        return take();
+    }
+
+    /**
+     * Takes count change numbers in increasing order, for a chunk of writes.
+     */
+    public long[] next(int count) {
+        long[] numbers = new long[count];
+        for (int i = 0; i < count; i++) {
+            numbers[i] = i % NUMBERS_PER_TAKE == 0 ? take() : numbers[i - 1] + 1;
+        }
+        return numbers;
+    }
+
+    /**
+     * Returns a number below which no more changes can appear. Nothing is settled until the first settle-time
+     * after startup has passed.
+     */
+    public long settled() {
+        take();
+        long now = System.nanoTime();
+        synchronized (samples) {
+            dropUnneededSamples(now);
+            long[] oldest = samples.peekFirst();
+            return oldest != null && now - oldest[0] >= settleNanos ? oldest[1] : 0;
+        }
+    }
+
+    private long take() {
+        Long value = jdbcTemplate.queryForObject(NEXT_VALUE, Long.class);
+        if (value == null) {
+            throw new IllegalStateException("The invoice change sequence returned no value.");
+        }
+        // Every number below the value was taken before this time
+        long time = System.nanoTime();
+        synchronized (samples) {
+            long[] newest = samples.peekLast();
+            if (newest == null || time - newest[0] >= settleNanos / MAX_SAMPLES) {
+                samples.addLast(new long[]{time, value});
+            }
+            dropUnneededSamples(time);
+        }
+        return value;
+    }
+
+    // Only the newest sample that has settled is needed, and none of the ones before it
+    private void dropUnneededSamples(long now) {
+        while (samples.size() > 1) {
+            Iterator<long[]> iterator = samples.iterator();
+            iterator.next();
+            if (now - iterator.next()[0] < settleNanos) {
+                return;
+            }
+            samples.removeFirst();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import uk.ac.leedsbeckett.finance.model.Invoice;
+import uk.ac.leedsbeckett.finance.model.InvoiceEvent;
+import uk.ac.leedsbeckett.finance.model.InvoiceEventType;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Transactional outbox of invoice events. Events are inserted in the caller's transaction, one row per
+ * webhook endpoint, so they exist exactly when the change they describe commits; WebhookDispatcher delivers
+ * them afterwards, and the request that made the change never waits for a subscriber.
+ */
+@Component
+public class InvoiceEventOutbox {
+
+    private static final String INSERT =
+            "insert into outbox_event (event_id, endpoint, event_type, payload, attempts, next_attempt_at, created_at) " +
+                    "values (?, ?, ?, ?, 0, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final List<String> endpoints;
+
+    public InvoiceEventOutbox(JdbcTemplate jdbcTemplate,
+                              ObjectMapper objectMapper,
+                              @Value("${finance.webhooks.urls:}") List<String> endpoints) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.endpoints = endpoints.stream()
+                .map(String::trim)
+                .filter(endpoint -> !endpoint.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    public void record(InvoiceEventType type, Invoice invoice) {
+        recordAll(type, List.of(invoice));
+    }
+
+    public void recordAll(InvoiceEventType type, Collection<Invoice> invoices) {
+        if (endpoints.isEmpty() || invoices.isEmpty()) {
+            return;
+        }
+        Instant now = Instant.now();
+        List<Object[]> rows = new ArrayList<>(invoices.size() * endpoints.size());
+        for (Invoice invoice : invoices) {
+            String eventId = UUID.randomUUID().toString();
+            String payload = toJson(new InvoiceEvent(eventId, type, now, invoice));
+            for (String endpoint : endpoints) {
+                rows.add(new Object[]{eventId, endpoint, type.ordinal(), payload, Timestamp.from(now), Timestamp.from(now)});
+            }
+        }
+        jdbcTemplate.batchUpdate(INSERT, rows);
+    }
+
+    List<String> getEndpoints() {
+        return endpoints;
+    }
+
+    private String toJson(InvoiceEvent event) {
+        try {
+            return objectMapper.writeValueAsString(event);
+        } catch (JsonProcessingException exception) {
+            throw new IllegalStateException("Could not serialise invoice event " + event.getEventId(), exception);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import uk.ac.leedsbeckett.finance.model.ExportFormat;
+import uk.ac.leedsbeckett.finance.model.Invoice;
+import uk.ac.leedsbeckett.finance.model.InvoiceFilter;
+import uk.ac.leedsbeckett.finance.model.InvoiceRepository;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes invoices for reporting as NDJSON or CSV while they are read from the database, one row at a time,
+ * so that memory use does not depend on how many invoices are exported. Unlike the /invoices collection,
+ * the export carries no links.
+ */
+@Component
+public class InvoiceExporter {
+
+    static final String CSV_HEADER = "id,reference,studentId,amount,dueDate,type,status";
+
+    private final InvoiceRepository invoiceRepository;
+    private final ObjectMapper objectMapper;
+    private final int fetchSize;
+
+    public InvoiceExporter(InvoiceRepository invoiceRepository,
+                           ObjectMapper objectMapper,
+                           @Value("${finance.export.fetch-size:1000}") int fetchSize) {
+        this.invoiceRepository = invoiceRepository;
+        this.objectMapper = objectMapper;
+        this.fetchSize = fetchSize;
+    }
+
+    public StreamingResponseBody export(InvoiceFilter filter, ExportFormat format) {
+        return outputStream -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            if (format == ExportFormat.CSV) {
+                writer.write(CSV_HEADER);
+                writer.write('\n');
+            }
+            try {
+                invoiceRepository.forEach(filter, fetchSize, invoice -> {
+                    try {
+                        if (format == ExportFormat.CSV) {
+                            writeCsv(writer, invoice);
+                        } else {
+                            writer.write(objectMapper.writeValueAsString(invoice));
+                            writer.write('\n');
+                        }
+                    } catch (IOException exception) {
+                        throw new UncheckedIOException(exception);
+                    }
+                });
+            } catch (UncheckedIOException exception) {
+                throw exception.getCause();
+            }
+            writer.flush();
+        };
+    }
+
+    private static void writeCsv(Writer writer, Invoice invoice) throws IOException {
+        writer.write(String.valueOf(invoice.getId()));
+        writer.write(',');
+        writer.write(csv(invoice.getReference()));
+        writer.write(',');
+        writer.write(csv(invoice.getStudentId()));
+        writer.write(',');
+        // Exact decimal amount, e.g. 10.50, rather than the double's shortest representation
+        writer.write(invoice.getAmountMinor() == null ? "" : BigDecimal.valueOf(invoice.getAmountMinor(), 2).toPlainString());
+        writer.write(',');
+        writer.write(invoice.getDueDate() == null ? "" : invoice.getDueDate().toString());
+        writer.write(',');
+        writer.write(invoice.getType() == null ? "" : invoice.getType().name());
+        writer.write(',');
+        writer.write(invoice.getStatus() == null ? "" : invoice.getStatus().name());
+        writer.write('\n');
+    }
+
+    private static String csv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
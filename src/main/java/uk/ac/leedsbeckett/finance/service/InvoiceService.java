@@ -1,23 +1,35 @@
 package uk.ac.leedsbeckett.finance.service;
 
 import org.springframework.context.MessageSource;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.hateoas.CollectionModel;
 import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.IanaLinkRelations;
 import org.springframework.hateoas.MediaTypes;
 import org.springframework.hateoas.mediatype.problem.Problem;
+import org.springframework.hateoas.server.mvc.WebMvcLinkBuilder;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
 import uk.ac.leedsbeckett.finance.controller.InvoiceController;
 import uk.ac.leedsbeckett.finance.exception.InvoiceNotFoundException;
 import uk.ac.leedsbeckett.finance.exception.InvoiceNotValidException;
+import uk.ac.leedsbeckett.finance.exception.InvoiceStatusConflictException;
+import uk.ac.leedsbeckett.finance.exception.PageRequestNotValidException;
 import uk.ac.leedsbeckett.finance.model.*;
 
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
@@ -30,42 +42,143 @@ public class InvoiceService {
     private final InvoiceModelAssembler assembler;
     private final InvoiceRepository invoiceRepository;
     private final MessageSource messageSource;
+    private final RequestLookupCache lookupCache;
+    private final ReferenceGenerator referenceGenerator;
+    private final InvoiceChangeSequence changeSequence;
+    private final InvoiceEventOutbox outbox;
+    private final EntityCache entityCache;
+    private final TransactionTemplate transactionTemplate;
 
-    public InvoiceService(AccountRepository accountRepository, InvoiceModelAssembler assembler, InvoiceRepository invoiceRepository, MessageSource messageSource) {
+    public InvoiceService(AccountRepository accountRepository, InvoiceModelAssembler assembler, InvoiceRepository invoiceRepository, MessageSource messageSource, RequestLookupCache lookupCache, ReferenceGenerator referenceGenerator, InvoiceChangeSequence changeSequence, InvoiceEventOutbox outbox, EntityCache entityCache, PlatformTransactionManager transactionManager) {
         this.accountRepository = accountRepository;
         this.assembler = assembler;
         this.invoiceRepository = invoiceRepository;
         this.messageSource = messageSource;
+        this.lookupCache = lookupCache;
+        this.referenceGenerator = referenceGenerator;
+        this.changeSequence = changeSequence;
+        this.outbox = outbox;
+        this.entityCache = entityCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
     }
 
     public EntityModel<Invoice> getInvoiceById(Long id) {
-        Invoice invoice = invoiceRepository.findById(id)
+        Invoice invoice = invoiceRepository.findWithAccountById(id)
                 .orElseThrow(() -> new InvoiceNotFoundException(id));
         return assembler.toModel(invoice);
     }
 
-    public CollectionModel<EntityModel<Invoice>> getAllInvoices() {
-        List<EntityModel<Invoice>> invoices = invoiceRepository.findAll()
+    public CollectionModel<EntityModel<Invoice>> getAllInvoices(InvoiceFilter filter, Long after, Long before, Integer size) {
+        return getAllInvoices(filter, after, before, size, null, null);
+    }
+
+    /**
+     * As getAllInvoices, but with only the comma-separated fields of each invoice loaded and written, if fields
+     * is given, and without the links of each invoice if links is none. The links to other pages are kept.
+     */
+    public CollectionModel<EntityModel<Invoice>> getAllInvoices(InvoiceFilter filter, Long after, Long before, Integer size,
+                                                                String fields, String links) {
+        Pagination.validateCursors(after, before);
+        int pageSize = Pagination.pageSize(size);
+        Set<String> selected = SparseFields.parse(fields, SparseFields.INVOICE);
+        boolean itemLinks = SparseFields.parseLinks(links);
+        InvoiceFilter query = filter == null ? new InvoiceFilter() : filter;
+        List<Invoice> rows;
+        if (selected == null) {
+            rows = invoiceRepository.findPage(query, after, before, pageSize + 1);
+        } else {
+            Set<String> columns = new LinkedHashSet<>(selected);
+            if (itemLinks) {
+                columns.add("reference");
+                columns.add("status");
+            }
+            rows = invoiceRepository.findPage(query, columns, after, before, pageSize + 1);
+            SparseFields.selectInvoiceFields(selected);
+        }
+        KeysetPage<Invoice> page = KeysetPage.of(rows, pageSize, after, before, Invoice::getId);
+
+        List<EntityModel<Invoice>> invoices = page.getItems()
                 .stream()
-                .map(assembler::toModel)
+                .map(invoice -> selected == null && itemLinks ? assembler.toModel(invoice) : assembler.toSparseModel(invoice, itemLinks))
                 .collect(Collectors.toList());
-        return CollectionModel.of(invoices, linkTo(methodOn(InvoiceController.class).all()).withSelfRel());
+
+        CollectionModel<EntityModel<Invoice>> collection = CollectionModel.of(invoices,
+                linkToPage(query, after, before, size, fields, links).withSelfRel().expand());
+        if (page.getNextCursor() != null) {
+            collection.add(linkToPage(query, page.getNextCursor(), null, size, fields, links).withRel(IanaLinkRelations.NEXT).expand());
+        }
+        if (page.getPreviousCursor() != null) {
+            collection.add(linkToPage(query, null, page.getPreviousCursor(), size, fields, links).withRel(IanaLinkRelations.PREV).expand());
+        }
+        return collection;
     }
 
+    /**
+     * Returns the invoices created, paid or cancelled after the since cursor, oldest change first.
+     * The page's cursor is passed as since to fetch the following changes; invoices deleted with
+     * their account are not reported. Only settled changes are returned, so a change shows up
+     * settle-time after it was made, but none can appear behind a cursor once it has been handed out.
+     */
+    public InvoiceChangePage getInvoiceChanges(Long since, Integer size) {
+        if (since != null && since < 0) {
+            throw new PageRequestNotValidException("The since cursor can't be negative.");
+        }
+        long cursor = since == null ? 0 : since;
+        int pageSize = Pagination.pageSize(size);
+        long settled = changeSequence.settled();
+        List<Invoice> changed = settled <= cursor + 1
+                ? List.of()
+                : invoiceRepository.findByChangeSequenceGreaterThanAndChangeSequenceLessThanOrderByChangeSequence(cursor,
+                        settled, PageRequest.of(0, pageSize + 1));
+        boolean more = changed.size() > pageSize;
+        if (more) {
+            changed = changed.subList(0, pageSize);
+        }
+        if (!changed.isEmpty()) {
+            cursor = changed.get(changed.size() - 1).getChangeSequence();
+        }
+
+        InvoiceChangePage page = new InvoiceChangePage(changed.stream()
+                .map(assembler::toModel)
+                .collect(Collectors.toList()), cursor);
+        page.add(linkTo(methodOn(InvoiceController.class).changes(since, size)).withSelfRel().expand());
+        if (more) {
+            page.add(linkTo(methodOn(InvoiceController.class).changes(cursor, size)).withRel(IanaLinkRelations.NEXT).expand());
+        }
+        return page;
+    }
+
+    /**
+     * Creates an outstanding invoice. The reference is generated before the transaction starts, as the
+     * generator may need a connection of its own to reserve a block, and a request must not wait for a
+     * second connection while holding one.
+     */
     public ResponseEntity<?> createNewInvoice(Invoice invoice) {
         if (!isInvoiceProcessable(invoice)) {
             throw new InvoiceNotValidException("You can't create an invoice without a valid student ID.");
         }
-        invoice.setStatus(Status.OUTSTANDING);
-        invoice.setAccount(accountRepository.findAccountByStudentId(invoice.getStudentId()));
-        invoice.populateReference();
-        Invoice newInvoice = invoiceRepository.save(invoice);
+        if (invoice.getAmount() == null) {
+            throw new InvoiceNotValidException("You can't create an invoice without an amount.");
+        }
+        // A reference sent by the client is ignored, as in bulk uploads, so it can't take one the generator hands out later
+        invoice.setReference(referenceGenerator.next());
+        Invoice newInvoice = transactionTemplate.execute(status -> {
+            invoice.setChangeSequence(changeSequence.next());
+            invoice.setStatus(Status.OUTSTANDING);
+            invoice.setAccount(findAccount(invoice.getStudentId()));
+            Invoice saved = invoiceRepository.save(invoice);
+            accountRepository.adjustOutstanding(saved.getAccount().getId(), 1, saved.getAmountMinor());
+            outbox.record(InvoiceEventType.INVOICE_CREATED, saved);
+            entityCache.evictAccountTotals(saved.getAccount());
+            return saved;
+        });
 
         return ResponseEntity
                 .created(linkTo(methodOn(InvoiceController.class).one(newInvoice.getId())).toUri())
                 .body(assembler.toModel(newInvoice));
     }
 
+    @Transactional
     public ResponseEntity<?> cancel(String reference) {
         Invoice invoice = invoiceRepository.findInvoiceByReference(reference);
 
@@ -74,8 +187,12 @@ public class InvoiceService {
         }
 
         if (invoice.getStatus() == Status.OUTSTANDING) {
-            invoice.setStatus(Status.CANCELLED);
-            return ResponseEntity.ok(assembler.toModel(invoiceRepository.save(invoice)));
+            try {
+                transition(invoice, Status.CANCELLED);
+            } catch (InvoiceStatusConflictException exception) {
+                return conflict(exception);
+            }
+            return ResponseEntity.ok(assembler.toModel(invoice));
         }
 
         return ResponseEntity
@@ -86,6 +203,7 @@ public class InvoiceService {
                         .withDetail("You can't cancel an invoice that is in the " + invoice.getStatus() + " status"));
     }
 
+    @Transactional
     public ResponseEntity<?> pay(String reference) {
         Invoice invoice;
         try {
@@ -97,26 +215,57 @@ public class InvoiceService {
                     .body(Problem.create()
                             .withTitle("Method not allowed")
                             .withDetail(exception.getMessage()));
+        } catch (InvoiceStatusConflictException exception) {
+            return conflict(exception);
         }
-        return ResponseEntity.ok(assembler.toModel(invoiceRepository.save(invoice)));
+        return ResponseEntity.ok(assembler.toModel(invoice));
     }
 
     public EntityModel<Invoice> getInvoiceByReference(String reference) {
-        Invoice invoice = invoiceRepository.findInvoiceByReference(reference);
+        Invoice invoice = findInvoice(reference);
         if (invoice == null) {
             throw new InvoiceNotFoundException(reference);
         }
         return assembler.toModel(invoice);
     }
 
+    /**
+     * Finds many invoices by reference at once, with one query per chunk of references.
+     */
+    public LookupResult<Invoice> lookupInvoices(List<String> references) {
+        Map<String, EntityModel<Invoice>> results = new LinkedHashMap<>();
+        Lookups.byKey(references, invoiceRepository::findInvoicesByReferenceIn, Invoice::getReference)
+                .forEach((reference, invoice) -> results.put(reference, invoice == null ? null : assembler.toModel(invoice)));
+        return new LookupResult<>(results);
+    }
+
+    private Invoice findInvoice(String reference) {
+        return lookupCache.get(RequestLookupCache.INVOICE_BY_REFERENCE, reference,
+                () -> entityCache.get(EntityCache.INVOICES_BY_REFERENCE, reference,
+                        () -> invoiceRepository.findInvoiceByReference(reference)));
+    }
+
+    private WebMvcLinkBuilder linkToPage(InvoiceFilter filter, Long after, Long before, Integer size, String fields, String links) {
+        return linkTo(methodOn(InvoiceController.class).all(after, before, size,
+                filter.getStatus(), filter.getType(), filter.getDueFrom(), filter.getDueTo(),
+                filter.getStudentId(), filter.getMinAmount(), filter.getMaxAmount(), fields, links));
+    }
+
+    private Account findAccount(String studentId) {
+        return lookupCache.get(RequestLookupCache.ACCOUNT_BY_STUDENT_ID, studentId,
+                () -> entityCache.get(EntityCache.ACCOUNTS_BY_STUDENT_ID, studentId,
+                        () -> accountRepository.findAccountByStudentId(studentId)));
+    }
+
     private boolean isInvoiceProcessable(Invoice invoice) {
         return invoice != null &&
                 invoice.getAccount() != null &&
                 invoice.getStudentId() != null &&
                 !invoice.getStudentId().isEmpty() &&
-                accountRepository.findAccountByStudentId(invoice.getStudentId()) != null;
+                findAccount(invoice.getStudentId()) != null;
     }
 
+    @Transactional
     public Invoice processPayment(String reference) throws UnsupportedOperationException {
         Invoice invoice = invoiceRepository.findInvoiceByReference(reference);
 
@@ -125,13 +274,41 @@ public class InvoiceService {
         }
 
         if (invoice.getStatus() == Status.OUTSTANDING) {
-            invoice.setStatus(Status.PAID);
-            return invoiceRepository.save(invoice);
+            transition(invoice, Status.PAID);
+            return invoice;
         } else {
             throw new UnsupportedOperationException("You can't pay an invoice that is in the " + invoice.getStatus() + " status");
         }
     }
 
+    /**
+     * Moves an OUTSTANDING invoice to the given status with a single conditional UPDATE.
+     * The database decides the winner when two requests race for the same invoice: the loser
+     * updates no rows and gets an InvoiceStatusConflictException. The invoice must have been loaded from the
+     * repository, not from the EntityCache.
+     */
+    private void transition(Invoice invoice, Status status) {
+        long change = changeSequence.next();
+        if (invoiceRepository.updateStatus(invoice.getId(), Status.OUTSTANDING, status, change) == 0) {
+            throw new InvoiceStatusConflictException(invoice.getReference());
+        }
+        entityCache.evictInvoice(invoice);
+        entityCache.evictAccountTotals(invoice.getAccount());
+        invoice.setStatus(status);
+        invoice.setChangeSequence(change);
+        accountRepository.adjustOutstanding(invoice.getAccount().getId(), -1, -invoice.getAmountMinor());
+        outbox.record(status == Status.PAID ? InvoiceEventType.INVOICE_PAID : InvoiceEventType.INVOICE_CANCELLED, invoice);
+    }
+
+    private ResponseEntity<?> conflict(InvoiceStatusConflictException exception) {
+        return ResponseEntity
+                .status(HttpStatus.CONFLICT)
+                .header(HttpHeaders.CONTENT_TYPE, MediaTypes.HTTP_PROBLEM_DETAILS_JSON_VALUE)
+                .body(Problem.create()
+                        .withTitle("Conflict")
+                        .withDetail(exception.getMessage()));
+    }
+
     public String showPortal(Model model) {
         Invoice invoice = new Invoice();
         model.addAttribute("invoice", invoice);
@@ -150,6 +327,7 @@ public class InvoiceService {
         return "invoice";
     }
 
+    @Transactional
     public String payInvoiceThroughPortal(Invoice invoice, Model model) {
         if (invoice == null || invoice.getReference() == null) {
             throw new InvoiceNotFoundException();
@@ -0,0 +1,103 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import uk.ac.leedsbeckett.finance.model.IdempotencyRecord;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Keeps idempotency records in the idempotency_record table, shared by all instances. The primary key on the
+ * idempotency key decides which of two concurrent requests reserves it.
+ * <p>
+ * A reservation whose request has not completed within the lock timeout is taken to belong to an instance
+ * that died while handling it, and may be taken over by a retry.
+ */
+@Component
+@ConditionalOnProperty(name = "finance.idempotency.store", havingValue = "jdbc")
+public class JdbcIdempotencyStore implements IdempotencyStore {
+
+    private static final String INSERT =
+            "insert into idempotency_record (idempotency_key, fingerprint, created_at, expires_at) values (?, ?, ?, ?)";
+    private static final String SELECT =
+            "select idempotency_key, fingerprint, status, content_type, location, body, created_at, expires_at " +
+                    "from idempotency_record where idempotency_key = ?";
+    private static final String DELETE_STALE =
+            "delete from idempotency_record where idempotency_key = ? and (expires_at < ? or (status is null and created_at < ?))";
+    private static final String COMPLETE =
+            "update idempotency_record set status = ?, content_type = ?, location = ?, body = ? where idempotency_key = ?";
+    private static final String DELETE_RESERVATION = "delete from idempotency_record where idempotency_key = ? and status is null";
+    private static final String DELETE_EXPIRED = "delete from idempotency_record where expires_at < ?";
+
+    private static final RowMapper<IdempotencyRecord> ROW_MAPPER = (resultSet, rowNum) -> {
+        IdempotencyRecord record = new IdempotencyRecord(resultSet.getString("idempotency_key"),
+                resultSet.getString("fingerprint"),
+                resultSet.getTimestamp("created_at").toInstant(),
+                resultSet.getTimestamp("expires_at").toInstant());
+        record.setStatus((Integer) resultSet.getObject("status"));
+        record.setContentType(resultSet.getString("content_type"));
+        record.setLocation(resultSet.getString("location"));
+        record.setBody(resultSet.getBytes("body"));
+        return record;
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Duration ttl;
+    private final Duration lockTimeout;
+
+    public JdbcIdempotencyStore(JdbcTemplate jdbcTemplate,
+                                @Value("${finance.idempotency.ttl:24h}") Duration ttl,
+                                @Value("${finance.idempotency.lock-timeout:60s}") Duration lockTimeout) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.ttl = ttl;
+        this.lockTimeout = lockTimeout;
+    }
+
+    @Override
+    public IdempotencyRecord reserve(String key, String fingerprint) {
+        Instant now = Instant.now();
+        if (insert(key, fingerprint, now)) {
+            return null;
+        }
+        if (jdbcTemplate.update(DELETE_STALE, key, Timestamp.from(now), Timestamp.from(now.minus(lockTimeout))) > 0
+                && insert(key, fingerprint, now)) {
+            return null;
+        }
+        List<IdempotencyRecord> existing = jdbcTemplate.query(SELECT, ROW_MAPPER, key);
+        // Released between the insert and the select: the caller's retry will find the key free
+        return existing.isEmpty() ? new IdempotencyRecord(key, fingerprint, now, now) : existing.get(0);
+    }
+
+    @Override
+    public void complete(IdempotencyRecord record) {
+        jdbcTemplate.update(COMPLETE, record.getStatus(), record.getContentType(), record.getLocation(),
+                record.getBody(), record.getIdempotencyKey());
+    }
+
+    @Override
+    public void release(String key) {
+        jdbcTemplate.update(DELETE_RESERVATION, key);
+    }
+
+    @Scheduled(fixedDelayString = "${finance.idempotency.purge-interval:3600000}")
+    public void purge() {
+        jdbcTemplate.update(DELETE_EXPIRED, Timestamp.from(Instant.now()));
+    }
+
+    private boolean insert(String key, String fingerprint, Instant now) {
+        try {
+            jdbcTemplate.update(INSERT, key, fingerprint, Timestamp.from(now), Timestamp.from(now.plus(ttl)));
+            return true;
+        } catch (DuplicateKeyException exception) {
+            return false;
+        }
+    }
+}
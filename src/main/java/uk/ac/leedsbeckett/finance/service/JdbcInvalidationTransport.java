@@ -0,0 +1,112 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import uk.ac.leedsbeckett.finance.model.CacheInvalidation;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Broadcasts invalidations through the cache_invalidation table. Publishing inserts rows in the caller's
+ * transaction, and each instance reads the rows above its high-water mark that other instances wrote.
+ * <p>
+ * Ids are allocated when a row is inserted but become visible when its transaction commits, so a row can
+ * appear below the high-water mark after the mark has passed it. The ids skipped on the way up are therefore
+ * read again on later polls until they turn up or the gap timeout (longer than any transaction) expires.
+ */
+@Component
+@ConditionalOnProperty(name = "finance.cache.invalidation.transport", havingValue = "jdbc", matchIfMissing = true)
+public class JdbcInvalidationTransport implements InvalidationTransport {
+
+    static final int MAX_ROWS = 1000;
+    static final int MAX_GAPS = 1000;
+    private static final String INSERT =
+            "insert into cache_invalidation (cache_name, cache_key, entity_id, origin, created_at) values (?, ?, ?, ?, ?)";
+    private static final String SELECT_MAX_ID = "select coalesce(max(id), 0) from cache_invalidation";
+    private static final String SELECT_AFTER =
+            "select id, cache_name, cache_key, entity_id, origin from cache_invalidation where id > ? order by id limit " + MAX_ROWS;
+    private static final String SELECT_IN =
+            "select id, cache_name, cache_key, entity_id, origin from cache_invalidation where id in (%s)";
+    private static final String DELETE_BEFORE = "delete from cache_invalidation where created_at < ?";
+
+    private static final RowMapper<CacheInvalidation> ROW_MAPPER = (resultSet, rowNum) -> {
+        CacheInvalidation invalidation = new CacheInvalidation(resultSet.getString("cache_name"), resultSet.getString("cache_key"),
+                resultSet.getObject("entity_id", Long.class));
+        invalidation.setId(resultSet.getLong("id"));
+        invalidation.setOrigin(resultSet.getString("origin"));
+        return invalidation;
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String origin = UUID.randomUUID().toString();
+    private final long gapTimeoutNanos;
+    private final Duration retention;
+    // Skipped ids still expected to commit, with the System.nanoTime() after which they are given up
+    private final Map<Long, Long> gaps = new TreeMap<>();
+    private Long highWaterMark;
+
+    public JdbcInvalidationTransport(JdbcTemplate jdbcTemplate,
+                                     @Value("${finance.cache.invalidation.gap-timeout:60s}") Duration gapTimeout,
+                                     @Value("${finance.cache.invalidation.retention:1h}") Duration retention) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.gapTimeoutNanos = gapTimeout.toNanos();
+        this.retention = retention;
+    }
+
+    @Override
+    public void publish(Collection<CacheInvalidation> invalidations) {
+        Timestamp now = Timestamp.from(Instant.now());
+        jdbcTemplate.batchUpdate(INSERT, invalidations, invalidations.size(), (statement, invalidation) -> {
+            statement.setString(1, invalidation.getCacheName());
+            statement.setString(2, invalidation.getCacheKey());
+            statement.setObject(3, invalidation.getEntityId(), Types.BIGINT);
+            statement.setString(4, origin);
+            statement.setTimestamp(5, now);
+        });
+    }
+
+    @Override
+    public synchronized List<CacheInvalidation> receive() {
+        if (highWaterMark == null) {
+            // Nothing published before this instance started can be in its caches
+            highWaterMark = jdbcTemplate.queryForObject(SELECT_MAX_ID, Long.class);
+            return List.of();
+        }
+        long now = System.nanoTime();
+        List<CacheInvalidation> received = new ArrayList<>();
+
+        gaps.values().removeIf(deadline -> now - deadline > 0);
+        if (!gaps.isEmpty()) {
+            String placeholders = gaps.keySet().stream().map(id -> "?").collect(Collectors.joining(", "));
+            List<CacheInvalidation> late = jdbcTemplate.query(String.format(SELECT_IN, placeholders), ROW_MAPPER, gaps.keySet().toArray());
+            late.forEach(invalidation -> gaps.remove(invalidation.getId()));
+            received.addAll(late);
+        }
+
+        for (CacheInvalidation invalidation : jdbcTemplate.query(SELECT_AFTER, ROW_MAPPER, highWaterMark)) {
+            for (long gap = highWaterMark + 1; gap < invalidation.getId() && gaps.size() < MAX_GAPS; gap++) {
+                gaps.put(gap, now + gapTimeoutNanos);
+            }
+            highWaterMark = invalidation.getId();
+            received.add(invalidation);
+        }
+
+        return received.stream()
+                .filter(invalidation -> !origin.equals(invalidation.getOrigin()))
+                .collect(Collectors.toList());
+    }
+
+    @Scheduled(fixedDelayString = "${finance.cache.invalidation.purge-interval:3600000}")
+    public void purge() {
+        jdbcTemplate.update(DELETE_BEFORE, Timestamp.from(Instant.now().minus(retention)));
+    }
+}
@@ -0,0 +1,53 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * One page of a keyset-paginated query, with the cursors for the neighbouring pages.
+ * Repositories are asked for one row more than the page size, which tells us whether
+ * another page exists in the direction of travel without running a count query.
+ */
+final class KeysetPage<T> {
+
+    private final List<T> items;
+    private final Long nextCursor;
+    private final Long previousCursor;
+
+    private KeysetPage(List<T> items, Long nextCursor, Long previousCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+        this.previousCursor = previousCursor;
+    }
+
+    static <T> KeysetPage<T> of(List<T> fetched, int pageSize, Long after, Long before, Function<T, Long> idOf) {
+        boolean backwards = before != null;
+        boolean more = fetched.size() > pageSize;
+        List<T> items = fetched;
+        if (more) {
+            items = backwards
+                    ? fetched.subList(fetched.size() - pageSize, fetched.size())
+                    : fetched.subList(0, pageSize);
+        }
+        if (items.isEmpty()) {
+            return new KeysetPage<>(items, null, null);
+        }
+        Long first = idOf.apply(items.get(0));
+        Long last = idOf.apply(items.get(items.size() - 1));
+        Long next = (backwards || more) ? last : null;
+        Long previous = (backwards ? more : after != null) ? first : null;
+        return new KeysetPage<>(items, next, previous);
+    }
+
+    List<T> getItems() {
+        return items;
+    }
+
+    Long getNextCursor() {
+        return nextCursor;
+    }
+
+    Long getPreviousCursor() {
+        return previousCursor;
+    }
+}
@@ -0,0 +1,44 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import uk.ac.leedsbeckett.finance.exception.LookupNotValidException;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Shared rules for the multi-get endpoints, which find many entities by natural key with one IN query per chunk.
+ */
+final class Lookups {
+
+    static final int MAX_KEYS = 10_000;
+    static final int CHUNK_SIZE = 500;
+
+    private Lookups() {
+    }
+
+    /**
+     * Maps each distinct key, in the order given, to the entity with that key, or to null when there is none.
+     */
+    static <T> Map<String, T> byKey(List<String> keys, Function<List<String>, List<T>> query, Function<T, String> keyOf) {
+        if (keys == null || keys.isEmpty()) {
+            throw new LookupNotValidException("At least one key must be given.");
+        }
+        if (keys.size() > MAX_KEYS) {
+            throw new LookupNotValidException("At most " + MAX_KEYS + " keys may be looked up at once.");
+        }
+        Map<String, T> found = new LinkedHashMap<>();
+        for (String key : keys) {
+            if (key == null || key.isEmpty()) {
+                throw new LookupNotValidException("Keys must not be null or empty.");
+            }
+            found.put(key, null);
+        }
+        List<String> distinct = new ArrayList<>(found.keySet());
+        for (int from = 0; from < distinct.size(); from += CHUNK_SIZE) {
+            for (T entity : query.apply(distinct.subList(from, Math.min(from + CHUNK_SIZE, distinct.size())))) {
+                found.replace(keyOf.apply(entity), entity);
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,58 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.ac.leedsbeckett.finance.model.AccountRepository;
+import uk.ac.leedsbeckett.finance.model.Status;
+
+/**
+ * Rebuilds the outstanding invoice count and amount held on each account from the invoice table.
+ * The totals are normally kept up to date by InvoiceService; this job repairs any drift, e.g. after
+ * invoices have been changed directly in the database. Accounts are processed in id ranges, each in
+ * its own transaction, so only a small number of rows is locked at any one time.
+ */
+@Component
+public class OutstandingBalanceReconciler {
+
+    private static final Logger log = LoggerFactory.getLogger(OutstandingBalanceReconciler.class);
+
+    private final AccountRepository accountRepository;
+    private final EntityCache entityCache;
+    private final TransactionTemplate transactionTemplate;
+    private final int chunkSize;
+
+    public OutstandingBalanceReconciler(AccountRepository accountRepository,
+                                        EntityCache entityCache,
+                                        PlatformTransactionManager transactionManager,
+                                        @Value("${finance.reconciliation.chunk-size:1000}") int chunkSize) {
+        this.accountRepository = accountRepository;
+        this.entityCache = entityCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.chunkSize = chunkSize;
+    }
+
+    @Scheduled(cron = "${finance.reconciliation.cron:0 30 2 * * *}")
+    public int reconcile() {
+        Long maxId = accountRepository.findMaxId();
+        int reconciled = 0;
+        if (maxId == null) {
+            return reconciled;
+        }
+        for (long fromId = 0; fromId < maxId; fromId += chunkSize) {
+            long toId = fromId + chunkSize;
+            long from = fromId;
+            Integer updated = transactionTemplate.execute(status ->
+                    accountRepository.reconcileOutstanding(Status.OUTSTANDING.ordinal(), from, toId));
+            reconciled += updated == null ? 0 : updated;
+        }
+        entityCache.clear(EntityCache.ACCOUNTS_BY_ID);
+        entityCache.clear(EntityCache.ACCOUNTS_BY_STUDENT_ID);
+        log.info("Reconciled outstanding balances for " + reconciled + " accounts");
+        return reconciled;
+    }
+}
@@ -0,0 +1,34 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import uk.ac.leedsbeckett.finance.exception.PageRequestNotValidException;
+
+/**
+ * Shared rules for the keyset-paginated collection endpoints.
+ */
+final class Pagination {
+
+    static final int DEFAULT_PAGE_SIZE = 20;
+    static final int MAX_PAGE_SIZE = 1000;
+
+    private Pagination() {
+    }
+
+    /**
+     * Returns the page size to use for a request, capped at MAX_PAGE_SIZE.
+     */
+    static int pageSize(Integer requested) {
+        if (requested == null) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        if (requested < 1) {
+            throw new PageRequestNotValidException("Page size must be at least 1.");
+        }
+        return Math.min(requested, MAX_PAGE_SIZE);
+    }
+
+    static void validateCursors(Long after, Long before) {
+        if (after != null && before != null) {
+            throw new PageRequestNotValidException("Only one of 'after' and 'before' may be given.");
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package uk.ac.leedsbeckett.finance.service;
+
+/**
+ * Source of invoice references: 8 characters from [A-Z0-9].
+ */
+public interface ReferenceGenerator {
+
+    /**
+     * Returns a reference that has not been returned before, by this or any other application instance.
+     */
+    String next();
+}
@@ -0,0 +1,63 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Identity map for entities looked up by a natural key (invoice reference, student ID) while handling
+ * one HTTP request, so that e.g. validating an invoice and then creating it query the account once.
+ * Entries live in the request attributes and disappear with the request. Outside a request, such as in
+ * scheduled jobs, every lookup goes straight to the loader. Misses are not remembered.
+ */
+@Component
+public class RequestLookupCache {
+
+    static final String ACCOUNT_BY_STUDENT_ID = "account.studentId";
+    static final String INVOICE_BY_REFERENCE = "invoice.reference";
+
+    private static final String ATTRIBUTE = RequestLookupCache.class.getName();
+
+    @SuppressWarnings("unchecked")
+    public <T> T get(String namespace, Object key, Supplier<T> loader) {
+        Map<String, Object> entries = entries();
+        if (entries == null || key == null) {
+            return loader.get();
+        }
+        String entryKey = namespace + ':' + key;
+        Object cached = entries.get(entryKey);
+        if (cached != null) {
+            return (T) cached;
+        }
+        T loaded = loader.get();
+        if (loaded != null) {
+            entries.put(entryKey, loaded);
+        }
+        return loaded;
+    }
+
+    public void evict(String namespace, Object key) {
+        Map<String, Object> entries = entries();
+        if (entries != null && key != null) {
+            entries.remove(namespace + ':' + key);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> entries() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return null;
+        }
+        Map<String, Object> entries = (Map<String, Object>) attributes.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (entries == null) {
+            entries = new HashMap<>();
+            attributes.setAttribute(ATTRIBUTE, entries, RequestAttributes.SCOPE_REQUEST);
+        }
+        return entries;
+    }
+}
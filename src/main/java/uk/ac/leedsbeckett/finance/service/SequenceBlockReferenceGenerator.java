@@ -0,0 +1,116 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.ac.leedsbeckett.finance.model.SequenceBlockRepository;
+
+/**
+ * Generates references from blocks of a database sequence. Each instance reserves a block of values
+ * in a short transaction of its own and hands them out from memory, so uniqueness comes from the
+ * sequence rather than from retrying inserts, and the database is only visited once per block.
+ * <p>
+ * A value is scrambled with a bijection, so that consecutive invoices do not get consecutive-looking
+ * references, written as 7 base-36 characters and followed by a Luhn mod 36 check character.
+ */
+@Component
+public class SequenceBlockReferenceGenerator implements ReferenceGenerator {
+
+    static final String SEQUENCE_NAME = "invoice_reference";
+    static final int RADIX = 36;
+    static final int VALUE_LENGTH = 7;
+    static final long CAPACITY = 78_364_164_096L; // 36^7
+    // Coprime with 36^7 and small enough that value * MULTIPLIER cannot overflow
+    private static final long MULTIPLIER = 97_531_357L;
+    private static final long OFFSET = 40_353_607L;
+    private static final char[] DIGITS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+
+    private final SequenceBlockRepository sequenceBlockRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int blockSize;
+    private long nextValue;
+    private long blockEnd;
+
+    public SequenceBlockReferenceGenerator(SequenceBlockRepository sequenceBlockRepository,
+                                           PlatformTransactionManager transactionManager,
+                                           @Value("${finance.reference.block-size:1000}") int blockSize) {
+        this.sequenceBlockRepository = sequenceBlockRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public synchronized String next() {
+        if (nextValue == blockEnd) {
+            nextValue = reserveBlock();
+            blockEnd = nextValue + blockSize;
+        }
+        return encode(nextValue++);
+    }
+
+    private long reserveBlock() {
+        Long start;
+        try {
+            start = transactionTemplate.execute(status -> reserve());
+        } catch (DataIntegrityViolationException exception) {
+            // Another instance created the sequence row first
+            start = transactionTemplate.execute(status -> reserve());
+        }
+        if (start == null || start + blockSize > CAPACITY) {
+            throw new IllegalStateException("The invoice reference sequence is exhausted.");
+        }
+        return start;
+    }
+
+    private long reserve() {
+        if (sequenceBlockRepository.advance(SEQUENCE_NAME, blockSize) == 0) {
+            sequenceBlockRepository.create(SEQUENCE_NAME, blockSize);
+            return 0;
+        }
+        return sequenceBlockRepository.findNextValue(SEQUENCE_NAME) - blockSize;
+    }
+
+    static String encode(long value) {
+        long scrambled = (value * MULTIPLIER + OFFSET) % CAPACITY;
+        char[] reference = new char[VALUE_LENGTH + 1];
+        for (int i = VALUE_LENGTH - 1; i >= 0; i--) {
+            reference[i] = DIGITS[(int) (scrambled % RADIX)];
+            scrambled /= RADIX;
+        }
+        reference[VALUE_LENGTH] = DIGITS[checkDigit(reference, VALUE_LENGTH)];
+        return new String(reference);
+    }
+
+    /**
+     * Whether the last character of the reference is the right check character for the rest of it.
+     * Catches every single-character mistake and most swaps of adjacent characters.
+     */
+    static boolean isValid(String reference) {
+        if (reference == null || reference.length() != VALUE_LENGTH + 1) {
+            return false;
+        }
+        char[] characters = reference.toCharArray();
+        for (char character : characters) {
+            if (Character.digit(character, RADIX) < 0 || Character.isLowerCase(character)) {
+                return false;
+            }
+        }
+        return Character.digit(characters[VALUE_LENGTH], RADIX) == checkDigit(characters, VALUE_LENGTH);
+    }
+
+    // Luhn mod N, doubling every second digit from the right, starting with the rightmost one
+    private static int checkDigit(char[] characters, int length) {
+        int sum = 0;
+        boolean doubled = true;
+        for (int i = length - 1; i >= 0; i--) {
+            int addend = Character.digit(characters[i], RADIX) * (doubled ? 2 : 1);
+            sum += addend / RADIX + addend % RADIX;
+            doubled = !doubled;
+        }
+        return (RADIX - sum % RADIX) % RADIX;
+    }
+}
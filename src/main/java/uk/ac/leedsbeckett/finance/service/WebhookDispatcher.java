@@ -0,0 +1,205 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Delivers the invoice events in the outbox to their webhook endpoints. Each poll claims the due events of
+ * every endpoint that has a free delivery slot and POSTs them as JSON arrays of up to batch-size events, from a
+ * pool of its own so that a slow endpoint holds up neither the poll nor the other endpoints.
+ * <p>
+ * Claiming stamps the events with a token and moves their next attempt past the request timeout, so that
+ * another instance polling the same outbox skips them while they are in flight. A failed batch is retried
+ * after an exponential backoff with jitter, until max-attempts. Delivery is at least once, and batches to one
+ * endpoint may arrive out of order when max-concurrency is above 1; events carry an id and the time they
+ * occurred for subscribers to reconcile.
+ */
+@Component
+public class WebhookDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(WebhookDispatcher.class);
+
+    private static final String SELECT_DUE =
+            "select id from outbox_event where endpoint = ? and delivered_at is null and next_attempt_at <= ? order by id limit ?";
+    private static final String CLAIM =
+            "update outbox_event set claim_token = ?, next_attempt_at = ? " +
+                    "where id in (%s) and delivered_at is null and next_attempt_at <= ?";
+    private static final String SELECT_CLAIMED =
+            "select id, payload, attempts from outbox_event where id in (%s) and claim_token = ? order by id";
+    private static final String DELIVERED =
+            "update outbox_event set delivered_at = ?, attempts = attempts + 1, last_error = null where id = ?";
+    private static final String FAILED =
+            "update outbox_event set attempts = ?, next_attempt_at = ?, last_error = ? where id = ?";
+    private static final String DELETE_DELIVERED_BEFORE = "delete from outbox_event where delivered_at < ?";
+    private static final int MAX_ERROR_LENGTH = 1024;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final RestTemplate restTemplate;
+    private final List<String> endpoints;
+    private final int batchSize;
+    private final int maxConcurrency;
+    private final int maxAttempts;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private final Duration lease;
+    private final Duration retention;
+    private final ExecutorService executor;
+    private final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+    public WebhookDispatcher(JdbcTemplate jdbcTemplate,
+                             RestTemplateBuilder restTemplateBuilder,
+                             InvoiceEventOutbox outbox,
+                             @Value("${finance.webhooks.batch-size:100}") int batchSize,
+                             @Value("${finance.webhooks.max-concurrency:2}") int maxConcurrency,
+                             @Value("${finance.webhooks.max-attempts:20}") int maxAttempts,
+                             @Value("${finance.webhooks.initial-backoff:1s}") Duration initialBackoff,
+                             @Value("${finance.webhooks.max-backoff:10m}") Duration maxBackoff,
+                             @Value("${finance.webhooks.timeout:5s}") Duration timeout,
+                             @Value("${finance.webhooks.retention:7d}") Duration retention) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.restTemplate = restTemplateBuilder
+                .setConnectTimeout(timeout)
+                .setReadTimeout(timeout)
+                .build();
+        this.endpoints = outbox.getEndpoints();
+        this.batchSize = batchSize;
+        this.maxConcurrency = maxConcurrency;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.lease = timeout.multipliedBy(2);
+        this.retention = retention;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, endpoints.size() * maxConcurrency));
+    }
+
+    @Scheduled(fixedDelayString = "${finance.webhooks.poll-interval:1000}")
+    public void dispatch() {
+        for (String endpoint : endpoints) {
+            AtomicInteger slots = inFlight.computeIfAbsent(endpoint, key -> new AtomicInteger());
+            int free = maxConcurrency - slots.get();
+            if (free <= 0) {
+                continue;
+            }
+            List<PendingEvent> claimed = claim(endpoint, free * batchSize);
+            for (int from = 0; from < claimed.size(); from += batchSize) {
+                List<PendingEvent> batch = claimed.subList(from, Math.min(from + batchSize, claimed.size()));
+                slots.incrementAndGet();
+                executor.execute(() -> {
+                    try {
+                        deliver(endpoint, batch);
+                    } finally {
+                        slots.decrementAndGet();
+                    }
+                });
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${finance.webhooks.purge-interval:3600000}")
+    public void purge() {
+        jdbcTemplate.update(DELETE_DELIVERED_BEFORE, Timestamp.from(Instant.now().minus(retention)));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private List<PendingEvent> claim(String endpoint, int limit) {
+        Timestamp now = Timestamp.from(Instant.now());
+        List<Long> due = jdbcTemplate.queryForList(SELECT_DUE, Long.class, endpoint, now, limit);
+        if (due.isEmpty()) {
+            return List.of();
+        }
+        // Rows claimed by another instance in the meantime no longer match, and do not get this claim's token
+        String placeholders = due.stream().map(id -> "?").collect(Collectors.joining(", "));
+        String token = UUID.randomUUID().toString();
+        List<Object> claimArguments = new ArrayList<>(due.size() + 3);
+        claimArguments.add(token);
+        claimArguments.add(Timestamp.from(now.toInstant().plus(lease)));
+        claimArguments.addAll(due);
+        claimArguments.add(now);
+        if (jdbcTemplate.update(String.format(CLAIM, placeholders), claimArguments.toArray()) == 0) {
+            return List.of();
+        }
+        List<Object> selectArguments = new ArrayList<>(due);
+        selectArguments.add(token);
+        return jdbcTemplate.query(String.format(SELECT_CLAIMED, placeholders),
+                (resultSet, rowNum) -> new PendingEvent(resultSet.getLong("id"), resultSet.getString("payload"), resultSet.getInt("attempts")),
+                selectArguments.toArray());
+    }
+
+    private void deliver(String endpoint, List<PendingEvent> batch) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        String body = batch.stream().map(event -> event.payload).collect(Collectors.joining(",", "[", "]"));
+        try {
+            restTemplate.postForEntity(endpoint, new HttpEntity<>(body, headers), Void.class);
+        } catch (RestClientException exception) {
+            failed(endpoint, batch, exception);
+            return;
+        }
+        Timestamp now = Timestamp.from(Instant.now());
+        jdbcTemplate.batchUpdate(DELIVERED, batch, batch.size(), (statement, event) -> {
+            statement.setTimestamp(1, now);
+            statement.setLong(2, event.id);
+        });
+    }
+
+    private void failed(String endpoint, List<PendingEvent> batch, RestClientException exception) {
+        String error = Objects.toString(exception.getMessage(), exception.getClass().getName());
+        String lastError = error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error;
+        Instant now = Instant.now();
+        log.warn("Could not deliver " + batch.size() + " invoice events to " + endpoint + ": " + error);
+        jdbcTemplate.batchUpdate(FAILED, batch, batch.size(), (statement, event) -> {
+            int attempts = event.attempts + 1;
+            statement.setInt(1, attempts);
+            // No next attempt once max-attempts is reached: the event stays in the outbox, undelivered
+            statement.setTimestamp(2, attempts >= maxAttempts ? null : Timestamp.from(now.plus(backoff(attempts))));
+            statement.setString(3, lastError);
+            statement.setLong(4, event.id);
+        });
+    }
+
+    Duration backoff(int attempts) {
+        long base = initialBackoff.toMillis() << Math.min(attempts - 1, 30);
+        long capped = Math.min(base > 0 ? base : Long.MAX_VALUE, maxBackoff.toMillis());
+        // Up to a quarter either way, so that events that failed together are not all retried together
+        long jitter = capped / 4;
+        return Duration.ofMillis(capped - jitter + ThreadLocalRandom.current().nextLong(2 * jitter + 1));
+    }
+
+    private static final class PendingEvent {
+        private final long id;
+        private final String payload;
+        private final int attempts;
+
+        private PendingEvent(long id, String payload, int attempts) {
+            this.id = id;
+            this.payload = payload;
+            this.attempts = attempts;
+        }
+    }
+}
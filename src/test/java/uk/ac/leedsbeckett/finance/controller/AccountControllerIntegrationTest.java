@@ -1,5 +1,8 @@
 package uk.ac.leedsbeckett.finance.controller;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -10,11 +13,20 @@ import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
-import uk.ac.leedsbeckett.finance.model.Account;
-import uk.ac.leedsbeckett.finance.model.AccountRepository;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import uk.ac.leedsbeckett.finance.model.*;
+import uk.ac.leedsbeckett.finance.service.ReferenceGenerator;
 
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDate;
+import java.time.Month;
 import java.util.List;
 
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -31,6 +43,15 @@ public class AccountControllerIntegrationTest {
     @Autowired
     private AccountRepository accountRepository;
 
+    @Autowired
+    private InvoiceRepository invoiceRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private ReferenceGenerator referenceGenerator;
+
     @BeforeEach
     public void setUp() {
         Account account1 = new Account("c6666666");
@@ -69,6 +90,108 @@ public class AccountControllerIntegrationTest {
                 .andExpect(jsonPath("$._embedded.accountList[1].studentId").value("c9999999"));
     }
 
+    @Test
+    public void givenAccounts_whenGetAccounts_thenPageIsProjectedWithoutLoadingEntities() throws Exception {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        mvc.perform(get("/accounts?studentIdPrefix=c6666666")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.accountList.length()").value(1))
+                .andExpect(jsonPath("$._embedded.accountList[0].id").exists())
+                .andExpect(jsonPath("$._embedded.accountList[0].outstandingCount").exists())
+                .andExpect(jsonPath("$._embedded.accountList[0]._links.self.href").value("http://localhost/accounts/student/c6666666"));
+
+        assertEquals(0, statistics.getEntityLoadCount());
+    }
+
+    @Test
+    public void givenAccounts_whenGetAccountsWithFieldsAndNoLinks_thenOnlyThoseFieldsWritten() throws Exception {
+        mvc.perform(get("/accounts?fields=studentId,hasOutstandingBalance&links=none")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.accountList.length()").value(2))
+                .andExpect(jsonPath("$._embedded.accountList[0].studentId").value("c6666666"))
+                .andExpect(jsonPath("$._embedded.accountList[0].hasOutstandingBalance").value(false))
+                .andExpect(jsonPath("$._embedded.accountList[0].id").doesNotExist())
+                .andExpect(jsonPath("$._embedded.accountList[0].outstandingCount").doesNotExist())
+                .andExpect(jsonPath("$._embedded.accountList[0]._links").doesNotExist())
+                .andExpect(jsonPath("$._links.self.href").value("http://localhost/accounts?fields=studentId%2ChasOutstandingBalance&links=none"));
+    }
+
+    @Test
+    public void givenAccounts_whenGetAccountsWithPageSize_thenStatus200_andLinkToNextPage() throws Exception {
+        mvc.perform(get("/accounts?size=1")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.accountList.length()").value(1))
+                .andExpect(jsonPath("$._embedded.accountList[0].studentId").value("c6666666"))
+                .andExpect(jsonPath("$._links.next.href").isNotEmpty())
+                .andExpect(jsonPath("$._links.prev").doesNotExist());
+    }
+
+    @Test
+    public void givenAccounts_whenGetAccountsAfterCursor_thenStatus200_andLinkToPreviousPage() throws Exception {
+        Long firstId = accountRepository.findAccountByStudentId("c6666666").getId();
+        mvc.perform(get("/accounts?size=1&after=" + firstId)
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.accountList.length()").value(1))
+                .andExpect(jsonPath("$._embedded.accountList[0].studentId").value("c9999999"))
+                .andExpect(jsonPath("$._links.next").doesNotExist())
+                .andExpect(jsonPath("$._links.prev.href").isNotEmpty());
+    }
+
+    @Test
+    public void givenAccounts_whenGetAccountsByStudentIdPrefix_thenStatus200_andOnlyMatchingAccounts() throws Exception {
+        mvc.perform(get("/accounts?studentIdPrefix=c99")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.accountList.length()").value(1))
+                .andExpect(jsonPath("$._embedded.accountList[0].studentId").value("c9999999"));
+    }
+
+    @Test
+    public void whenGetAccounts_withInvalidPageSize_thenStatus400() throws Exception {
+        mvc.perform(get("/accounts?size=0")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void givenAccountsWithOutstandingInvoices_whenGetAccounts_thenStatementCountDoesNotGrow() throws Exception {
+        long statementsForTwoAccounts = countStatements("/accounts");
+        for (int i = 0; i < 30; i++) {
+            String studentId = "c10000" + String.format("%02d", i);
+            accountRepository.save(new Account(studentId));
+            mvc.perform(post("/invoices")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"amount\": 5.00, \"dueDate\": \"2022-03-01\",\"type\": \"LIBRARY_FINE\",\"account\": {\"studentId\": \"" + studentId + "\"}}"))
+                    .andExpect(status().isCreated());
+        }
+        long statementsForThirtyTwoAccounts = countStatements("/accounts?size=50");
+        assertEquals(statementsForTwoAccounts, statementsForThirtyTwoAccounts);
+        mvc.perform(get("/accounts?studentIdPrefix=c1000")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$._embedded.accountList[0].hasOutstandingBalance").value(true))
+                .andExpect(jsonPath("$._embedded.accountList[0].outstandingCount").value(1))
+                .andExpect(jsonPath("$._embedded.accountList[0].outstandingAmount").value(5.00));
+        mvc.perform(get("/accounts?hasOutstandingBalance=false")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$._embedded.accountList.length()").value(2));
+    }
+
+    @Test
+    public void whenPostNewAccount_withOutstandingTotals_thenTotalsAreIgnored() throws Exception {
+        mvc.perform(post("/accounts")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"studentId\": \"c3429929\", \"outstandingCount\": 3, \"outstandingAmount\": 10.0}"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.outstandingCount").value(0))
+                .andExpect(jsonPath("$.outstandingAmount").value(0.0))
+                .andExpect(jsonPath("$.hasOutstandingBalance").value(false));
+    }
+
     @Test
     public void givenNoAccounts_whenGetAccounts_thenStatus200_andLinkToSelf() throws Exception {
         accountRepository.deleteAll();
@@ -115,6 +238,22 @@ public class AccountControllerIntegrationTest {
                 .andExpect(jsonPath("$.hasOutstandingBalance").value(false));
     }
 
+    @Test
+    public void givenNoAccount_whenPostNewAccountAsCbor_thenStatus201_andHalDocumentAsCbor() throws Exception {
+        ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+        byte[] response = mvc.perform(post("/accounts")
+                        .contentType(MediaType.APPLICATION_CBOR)
+                        .accept(MediaType.APPLICATION_CBOR)
+                        .content(cborMapper.writeValueAsBytes(cborMapper.createObjectNode().put("studentId", "c3429929"))))
+                .andExpect(status().isCreated())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        JsonNode account = cborMapper.readTree(response);
+        assertEquals("c3429929", account.get("studentId").asText());
+        assertEquals("http://localhost/accounts/student/c3429929", account.at("/_links/self/href").asText());
+    }
+
     @Test
     public void givenExistingAccount_whenPostNewAccount_thenStatus422() throws Exception {
         mvc.perform(post("/accounts")
@@ -140,6 +279,66 @@ public class AccountControllerIntegrationTest {
                 .andExpect(status().isBadRequest());
     }
 
+    @Test
+    public void givenAccountWithInvoices_whenDelete_thenInvoicesDeletedWithoutLoadingThem() throws Exception {
+        Account account = accountRepository.save(new Account("c4444444"));
+        for (int i = 0; i < 5; i++) {
+            Invoice invoice = new Invoice(2.50, LocalDate.of(2022, Month.MAY, 1), Type.LIBRARY_FINE, account);
+            invoice.setReference(referenceGenerator.next());
+            invoice.setStatus(Status.PAID);
+            invoiceRepository.save(invoice);
+        }
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        mvc.perform(delete("/accounts/" + account.getId())
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNoContent());
+
+        // find the account, then one bulk delete each for its invoices and the account itself
+        assertEquals(3, statistics.getPrepareStatementCount());
+        assertEquals(1, statistics.getEntityLoadCount());
+        assertTrue(invoiceRepository.findInvoiceByAccount_IdAndStatus(account.getId(), Status.PAID).isEmpty());
+        assertTrue(accountRepository.findById(account.getId()).isEmpty());
+    }
+
+    @Test
+    public void givenStudentIds_whenLookup_thenAccountsKeyedByStudentIdInOneQuery() throws Exception {
+        accountRepository.save(new Account("c4444445"));
+        for (int i = 0; i < 2; i++) {
+            mvc.perform(post("/invoices")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"amount\": 7.50, \"dueDate\": \"2022-05-01\", \"type\": \"LIBRARY_FINE\", \"account\": {\"studentId\": \"c4444445\"}}"))
+                    .andExpect(status().isCreated());
+        }
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        mvc.perform(post("/accounts/lookup")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[\"c4444445\", \"c9999999\", \"c0000000\", \"c4444445\"]"))
+                .andExpect(status().isOk())
+                .andExpect(content()
+                        .contentTypeCompatibleWith(MediaTypes.HAL_JSON))
+                .andExpect(jsonPath("$.results.length()").value(3))
+                .andExpect(jsonPath("$.results.c4444445.hasOutstandingBalance").value(true))
+                .andExpect(jsonPath("$.results.c4444445.outstandingCount").value(2))
+                .andExpect(jsonPath("$.results.c9999999.hasOutstandingBalance").value(false))
+                .andExpect(jsonPath("$.results.c9999999._links.self.href").value("http://localhost/accounts/student/c9999999"))
+                .andExpect(jsonPath("$.results.c0000000").value(nullValue()));
+
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void givenNoStudentIds_whenLookup_thenStatus400() throws Exception {
+        mvc.perform(post("/accounts/lookup")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[]"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("At least one key must be given."));
+    }
+
     @Test
     public void givenNoAccount_whenDelete_thenStatus404() throws Exception {
         mvc.perform(delete("/accounts/1000")
@@ -148,8 +347,51 @@ public class AccountControllerIntegrationTest {
                 .andExpect(content().string("Could not find account 1000"));
     }
 
+    @Test
+    public void whenImportAccountsFromCsv_thenNewAccountsCreated_andDuplicatesReported() throws Exception {
+        mvc.perform(post("/accounts/import")
+                        .contentType("text/csv")
+                        .content("studentId\nc1000001\nc6666666\nc1000002\nc1000001\n,unused\n"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.created").value(2))
+                .andExpect(jsonPath("$.duplicate").value(2))
+                .andExpect(jsonPath("$.invalid").value(1))
+                .andExpect(jsonPath("$.failures[0].index").value(1))
+                .andExpect(jsonPath("$.failures[0].studentId").value("c6666666"))
+                .andExpect(jsonPath("$.failures[0].outcome").value("DUPLICATE"))
+                .andExpect(jsonPath("$.failures[1].index").value(3))
+                .andExpect(jsonPath("$.failures[1].outcome").value("DUPLICATE"))
+                .andExpect(jsonPath("$.failures[2].outcome").value("INVALID"));
+
+        Account imported = accountRepository.findAccountByStudentId("c1000002");
+        assertEquals(0, imported.getOutstandingCount());
+        assertEquals(0.0, imported.getOutstandingAmount());
+    }
+
+    @Test
+    public void whenImportAccountsFromNdjson_thenNewAccountsCreated() throws Exception {
+        mvc.perform(post("/accounts/import")
+                        .contentType("application/x-ndjson")
+                        .content("{\"studentId\": \"c2000001\"}\n{\"studentId\": \"c9999999\"}\n"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.created").value(1))
+                .andExpect(jsonPath("$.duplicate").value(1));
+
+        assertEquals("c2000001", accountRepository.findAccountByStudentId("c2000001").getStudentId());
+    }
+
+    private long countStatements(String url) throws Exception {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        mvc.perform(get(url)
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+        return statistics.getPrepareStatementCount();
+    }
+
     @AfterEach
     public void tearDown() {
+        invoiceRepository.deleteAll();
         accountRepository.deleteAll();
     }
 }
@@ -0,0 +1,223 @@
+package uk.ac.leedsbeckett.finance.controller;
+
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import uk.ac.leedsbeckett.finance.model.*;
+import uk.ac.leedsbeckett.finance.service.ReferenceGenerator;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.Month;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+@AutoConfigureTestDatabase
+@ActiveProfiles("test")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class IdempotencyFilterIntegrationTest {
+
+    private static final String STUDENT_ID = "c6666667";
+    private static final String NEW_INVOICE =
+            "{\"amount\": 12.25, \"dueDate\": \"2022-05-01\",\"type\": \"LIBRARY_FINE\",\"account\": {\"studentId\": \"" + STUDENT_ID + "\"}}";
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private IdempotencyFilter idempotencyFilter;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private InvoiceRepository invoiceRepository;
+
+    @Autowired
+    private ReferenceGenerator referenceGenerator;
+
+    private String outstandingInvoiceReference;
+    private long invoicesBefore;
+    private long outstandingBefore;
+
+    @BeforeEach
+    public void setUp() {
+        Account account = accountRepository.save(new Account(STUDENT_ID));
+        Invoice invoice = new Invoice(10.50, LocalDate.of(2021, Month.DECEMBER, 25), Type.TUITION_FEES, account);
+        invoice.setReference(referenceGenerator.next());
+        invoice.setStatus(Status.OUTSTANDING);
+        outstandingInvoiceReference = invoiceRepository.save(invoice).getReference();
+        invoicesBefore = invoiceRepository.count();
+        outstandingBefore = account.getOutstandingCount();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        invoiceRepository.deleteAll();
+        accountRepository.deleteAll();
+    }
+
+    @Test
+    public void givenIdempotencyKey_whenNewInvoiceRetried_thenOriginalResponseIsReplayed() throws Exception {
+        String key = UUID.randomUUID().toString();
+        MockHttpServletResponse first = mvc.perform(post("/invoices").header(IdempotencyFilter.IDEMPOTENCY_KEY, key)
+                        .contentType(MediaType.APPLICATION_JSON).content(NEW_INVOICE))
+                .andExpect(status().isCreated())
+                .andExpect(header().doesNotExist(IdempotencyFilter.IDEMPOTENT_REPLAYED))
+                .andReturn().getResponse();
+
+        mvc.perform(post("/invoices").header(IdempotencyFilter.IDEMPOTENCY_KEY, key)
+                        .contentType(MediaType.APPLICATION_JSON).content(NEW_INVOICE))
+                .andExpect(status().isCreated())
+                .andExpect(header().string(IdempotencyFilter.IDEMPOTENT_REPLAYED, "true"))
+                .andExpect(header().string(HttpHeaders.LOCATION, first.getHeader(HttpHeaders.LOCATION)))
+                .andExpect(content().contentType(first.getContentType()))
+                .andExpect(content().string(first.getContentAsString()));
+        assertEquals(invoicesBefore + 1, invoiceRepository.count());
+        assertEquals(outstandingBefore + 1, accountRepository.findAccountByStudentId(STUDENT_ID).getOutstandingCount());
+    }
+
+    @Test
+    public void givenIdempotencyKey_whenPayRetried_thenOriginalResponseIsReplayed() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String first = mvc.perform(put("/invoices/" + outstandingInvoiceReference + "/pay").header(IdempotencyFilter.IDEMPOTENCY_KEY, key))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        mvc.perform(put("/invoices/" + outstandingInvoiceReference + "/pay").header(IdempotencyFilter.IDEMPOTENCY_KEY, key))
+                .andExpect(status().isOk())
+                .andExpect(header().string(IdempotencyFilter.IDEMPOTENT_REPLAYED, "true"))
+                .andExpect(content().string(first))
+                .andExpect(jsonPath("$.status").value("PAID"));
+        mvc.perform(put("/invoices/" + outstandingInvoiceReference + "/pay"))
+                .andExpect(status().isMethodNotAllowed());
+    }
+
+    @Test
+    public void givenIdempotencyKey_whenPayRetriedConcurrently_thenInvoiceIsPaidOnce() throws Exception {
+        int threads = 8;
+        String key = UUID.randomUUID().toString();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<MockHttpServletResponse>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return mvc.perform(put("/invoices/" + outstandingInvoiceReference + "/pay")
+                                .header(IdempotencyFilter.IDEMPOTENCY_KEY, key))
+                        .andReturn().getResponse();
+            }));
+        }
+        start.countDown();
+        List<MockHttpServletResponse> responses = new ArrayList<>();
+        for (Future<MockHttpServletResponse> result : results) {
+            responses.add(result.get(30, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+
+        assertEquals(1, responses.stream()
+                .filter(response -> response.getStatus() == 200 && response.getHeader(IdempotencyFilter.IDEMPOTENT_REPLAYED) == null)
+                .count());
+        assertTrue(responses.stream().allMatch(response -> response.getStatus() == 200 || response.getStatus() == 409));
+        assertEquals(outstandingBefore - 1, accountRepository.findAccountByStudentId(STUDENT_ID).getOutstandingCount());
+    }
+
+    @Test
+    public void givenIdempotencyKey_whenReusedForDifferentRequest_thenStatus422() throws Exception {
+        String key = UUID.randomUUID().toString();
+        mvc.perform(post("/invoices").header(IdempotencyFilter.IDEMPOTENCY_KEY, key)
+                        .contentType(MediaType.APPLICATION_JSON).content(NEW_INVOICE))
+                .andExpect(status().isCreated());
+
+        mvc.perform(post("/invoices").header(IdempotencyFilter.IDEMPOTENCY_KEY, key)
+                        .contentType(MediaType.APPLICATION_JSON).content(NEW_INVOICE.replace("12.25", "99.99")))
+                .andExpect(status().isUnprocessableEntity())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_PROBLEM_JSON));
+        mvc.perform(put("/invoices/" + outstandingInvoiceReference + "/pay").header(IdempotencyFilter.IDEMPOTENCY_KEY, key))
+                .andExpect(status().isUnprocessableEntity());
+        assertEquals(invoicesBefore + 1, invoiceRepository.count());
+    }
+
+    @Test
+    public void givenTooLongIdempotencyKey_whenNewInvoice_thenStatus400() throws Exception {
+        mvc.perform(post("/invoices").header(IdempotencyFilter.IDEMPOTENCY_KEY, "k".repeat(IdempotencyRecord.MAX_KEY_LENGTH + 1))
+                        .contentType(MediaType.APPLICATION_JSON).content(NEW_INVOICE))
+                .andExpect(status().isBadRequest());
+        assertEquals(invoicesBefore, invoiceRepository.count());
+    }
+
+    @Test
+    public void givenNoIdempotencyKey_whenNewInvoiceRepeated_thenBothAreCreated() throws Exception {
+        String first = JsonPath.read(mvc.perform(post("/invoices").contentType(MediaType.APPLICATION_JSON).content(NEW_INVOICE))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString(), "$.reference");
+        String second = JsonPath.read(mvc.perform(post("/invoices").contentType(MediaType.APPLICATION_JSON).content(NEW_INVOICE))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString(), "$.reference");
+
+        assertNotEquals(first, second);
+    }
+
+    @Test
+    public void givenIdempotencyKey_whenBodyReadWithReadListener_thenWholeBodyIsDelivered() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/invoices");
+        request.addHeader(IdempotencyFilter.IDEMPOTENCY_KEY, UUID.randomUUID().toString());
+        request.setContent(NEW_INVOICE.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        List<String> events = new ArrayList<>();
+
+        idempotencyFilter.doFilter(request, new MockHttpServletResponse(), (filteredRequest, filteredResponse) -> {
+            ServletInputStream input = filteredRequest.getInputStream();
+            input.setReadListener(new ReadListener() {
+                @Override
+                public void onDataAvailable() throws IOException {
+                    events.add("data");
+                    while (input.isReady() && !input.isFinished()) {
+                        read.write(input.read());
+                    }
+                }
+
+                @Override
+                public void onAllDataRead() {
+                    events.add("end");
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    events.add("error");
+                }
+            });
+        });
+
+        assertEquals(List.of("data", "end"), events);
+        assertEquals(NEW_INVOICE, read.toString(StandardCharsets.UTF_8));
+    }
+}
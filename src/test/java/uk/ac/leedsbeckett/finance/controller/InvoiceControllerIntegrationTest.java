@@ -1,5 +1,11 @@
 package uk.ac.leedsbeckett.finance.controller;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.jayway.jsonpath.JsonPath;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -12,10 +18,22 @@ import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import uk.ac.leedsbeckett.finance.model.*;
+import uk.ac.leedsbeckett.finance.service.ReferenceGenerator;
 
+import javax.persistence.EntityManagerFactory;
 import java.time.LocalDate;
 import java.time.Month;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -38,6 +56,12 @@ public class InvoiceControllerIntegrationTest {
     @Autowired
     private InvoiceRepository invoiceRepository;
 
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private ReferenceGenerator referenceGenerator;
+
     private String outstandingInvoiceReference;
     private String paidInvoiceReference;
     private String cancelledInvoiceReference;
@@ -48,14 +72,17 @@ public class InvoiceControllerIntegrationTest {
         account.setId(1L);
         accountRepository.save(account);
         Invoice outstandingInvoice = new Invoice(10.50, LocalDate.of(2021, Month.DECEMBER, 25), Type.TUITION_FEES, account);
+        outstandingInvoice.setReference(referenceGenerator.next());
         outstandingInvoice.setStatus(Status.OUTSTANDING);
         Invoice outstandingInvoiceSaved = invoiceRepository.save(outstandingInvoice);
         outstandingInvoiceReference = outstandingInvoiceSaved.getReference();
         Invoice paidInvoice = new Invoice(5.30, LocalDate.of(2022, Month.JANUARY, 10), Type.LIBRARY_FINE, account);
+        paidInvoice.setReference(referenceGenerator.next());
         paidInvoice.setStatus(Status.PAID);
         Invoice paidInvoiceSaved = invoiceRepository.save(paidInvoice);
         paidInvoiceReference = paidInvoiceSaved.getReference();
         Invoice cancelledInvoice = new Invoice(1.00, LocalDate.of(2022, Month.FEBRUARY, 28), Type.LIBRARY_FINE, account);
+        cancelledInvoice.setReference(referenceGenerator.next());
         cancelledInvoice.setStatus(Status.CANCELLED);
         Invoice cancelledInvoiceSaved = invoiceRepository.save(cancelledInvoice);
         cancelledInvoiceReference = cancelledInvoiceSaved.getReference();
@@ -72,6 +99,163 @@ public class InvoiceControllerIntegrationTest {
                 .andExpect(jsonPath("$.id").value("1"));
     }
 
+    @Test
+    public void givenInvoices_whenGetInvoicesByStatusAndType_thenOnlyMatchingInvoicesReturned() throws Exception {
+        mvc.perform(get("/invoices?status=PAID&type=LIBRARY_FINE")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.invoiceList.length()").value(1))
+                .andExpect(jsonPath("$._embedded.invoiceList[0].reference").value(paidInvoiceReference));
+    }
+
+    @Test
+    public void givenInvoices_whenGetInvoicesByDueDateAndAmountRange_thenOnlyMatchingInvoicesReturned() throws Exception {
+        mvc.perform(get("/invoices?studentId=c6666666&dueFrom=2022-01-01&dueTo=2022-12-31&minAmount=2&maxAmount=5.30")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.invoiceList.length()").value(1))
+                .andExpect(jsonPath("$._embedded.invoiceList[0].reference").value(paidInvoiceReference));
+    }
+
+    @Test
+    public void givenInvoices_whenGetInvoicesPageByPage_thenNextLinkKeepsFilter() throws Exception {
+        String body = mvc.perform(get("/invoices?studentId=c6666666&size=2")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.invoiceList.length()").value(2))
+                .andExpect(jsonPath("$._embedded.invoiceList[0].reference").value(outstandingInvoiceReference))
+                .andReturn().getResponse().getContentAsString();
+
+        String next = JsonPath.read(body, "$._links.next.href");
+        assertTrue(next.contains("studentId=c6666666"));
+        mvc.perform(get(next)
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.invoiceList.length()").value(1))
+                .andExpect(jsonPath("$._embedded.invoiceList[0].reference").value(cancelledInvoiceReference))
+                .andExpect(jsonPath("$._links.prev.href").exists());
+    }
+
+    @Test
+    public void givenThousandInvoices_whenGetInvoices_thenOneStatementLoadsInvoicesAndStudentIds() throws Exception {
+        List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            accounts.add(new Account(String.format("c81%05d", i)));
+        }
+        accounts = accountRepository.saveAll(accounts);
+        List<Invoice> invoices = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Invoice invoice = new Invoice(1.00, LocalDate.of(2022, Month.MARCH, 1), Type.LIBRARY_FINE, accounts.get(i % 100));
+            invoice.setReference(referenceGenerator.next());
+            invoice.setStatus(Status.OUTSTANDING);
+            invoices.add(invoice);
+        }
+        invoiceRepository.insertAll(invoices);
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        mvc.perform(get("/invoices?size=1000&dueFrom=2022-03-01&dueTo=2022-03-01")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.invoiceList.length()").value(1000))
+                .andExpect(jsonPath("$._embedded.invoiceList[999].studentId").value("c8100099"));
+        assertEquals(1, statistics.getPrepareStatementCount());
+
+        statistics.clear();
+        mvc.perform(get("/invoices/reference/" + outstandingInvoiceReference)
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.studentId").value("c6666666"));
+        assertEquals(1, statistics.getPrepareStatementCount());
+
+        invoiceRepository.deleteAll();
+        accountRepository.deleteAll(accounts);
+    }
+
+    @Test
+    public void givenInvoices_whenGetInvoices_thenPageIsProjectedWithoutLoadingEntities() throws Exception {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        mvc.perform(get("/invoices?status=OUTSTANDING")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.invoiceList.length()").value(1))
+                .andExpect(jsonPath("$._embedded.invoiceList[0].reference").value(outstandingInvoiceReference))
+                .andExpect(jsonPath("$._embedded.invoiceList[0].studentId").value("c6666666"))
+                .andExpect(jsonPath("$._embedded.invoiceList[0].amount").value(10.50))
+                .andExpect(jsonPath("$._embedded.invoiceList[0].dueDate").value("2021-12-25"))
+                .andExpect(jsonPath("$._embedded.invoiceList[0].type").value("TUITION_FEES"))
+                .andExpect(jsonPath("$._embedded.invoiceList[0]._links.pay.href").exists());
+
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertEquals(0, statistics.getEntityLoadCount());
+    }
+
+    @Test
+    public void givenInvoices_whenGetInvoicesWithFieldsAndNoLinks_thenOnlyThoseFieldsWritten() throws Exception {
+        String body = mvc.perform(get("/invoices?studentId=c6666666&size=2&fields=reference,status&links=none")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.invoiceList.length()").value(2))
+                .andExpect(jsonPath("$._embedded.invoiceList[0].reference").value(outstandingInvoiceReference))
+                .andExpect(jsonPath("$._embedded.invoiceList[0].status").value("OUTSTANDING"))
+                .andExpect(jsonPath("$._embedded.invoiceList[0].amount").doesNotExist())
+                .andExpect(jsonPath("$._embedded.invoiceList[0].studentId").doesNotExist())
+                .andExpect(jsonPath("$._embedded.invoiceList[0].id").doesNotExist())
+                .andExpect(jsonPath("$._embedded.invoiceList[0]._links").doesNotExist())
+                .andReturn().getResponse().getContentAsString();
+
+        String next = JsonPath.read(body, "$._links.next.href");
+        assertTrue(next.contains("fields=reference%2Cstatus"));
+        assertTrue(next.contains("links=none"));
+    }
+
+    @Test
+    public void givenInvoices_whenGetInvoicesWithFields_thenLinksStillWritten() throws Exception {
+        mvc.perform(get("/invoices?status=OUTSTANDING&fields=amount")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.invoiceList[0].amount").value(10.50))
+                .andExpect(jsonPath("$._embedded.invoiceList[0].reference").doesNotExist())
+                .andExpect(jsonPath("$._embedded.invoiceList[0]._links.pay.href").exists());
+    }
+
+    @Test
+    public void whenGetInvoicesWithUnknownFieldOrLinks_thenStatus400() throws Exception {
+        mvc.perform(get("/invoices?fields=reference,secret")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+        mvc.perform(get("/invoices?links=some")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void givenInvoices_whenGetInvoicesAsCbor_thenSameHalDocumentAsJsonInFewerBytes() throws Exception {
+        byte[] json = mvc.perform(get("/invoices")
+                        .accept(MediaTypes.HAL_JSON))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray();
+        byte[] cbor = mvc.perform(get("/invoices")
+                        .accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        JsonNode fromCbor = new ObjectMapper(new CBORFactory()).readTree(cbor);
+        assertEquals(new ObjectMapper().readTree(json), fromCbor);
+        assertEquals("2021-12-25", fromCbor.at("/_embedded/invoiceList/0/dueDate").asText());
+        assertTrue(fromCbor.at("/_embedded/invoiceList/0/_links/self/href").isTextual());
+        assertTrue(cbor.length < json.length);
+    }
+
+    @Test
+    public void whenGetInvoicesWithUnknownStatus_thenStatus400() throws Exception {
+        mvc.perform(get("/invoices?status=OVERDUE")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     public void givenInvoice_whenDelete_thenStatus200_andInvoiceCancelled() throws Exception {
         mvc.perform(delete("/invoices/" + outstandingInvoiceReference + "/cancel")
@@ -94,6 +278,52 @@ public class InvoiceControllerIntegrationTest {
                 .andExpect(jsonPath("$.reference").value(outstandingInvoiceReference));
     }
 
+    @Test
+    public void givenNewInvoice_whenPayAndCancel_thenAccountTotalsFollowInvoiceStatus() throws Exception {
+        long countBefore = accountRepository.findAccountByStudentId("c6666666").getOutstandingCount();
+        String body = "{\"amount\": 12.25, \"dueDate\": \"2022-05-01\",\"type\": \"LIBRARY_FINE\",\"account\": {\"studentId\": \"c6666666\"}}";
+        String first = JsonPath.read(mvc.perform(post("/invoices").contentType(MediaType.APPLICATION_JSON).content(body))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString(), "$.reference");
+        String second = JsonPath.read(mvc.perform(post("/invoices").contentType(MediaType.APPLICATION_JSON).content(body))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString(), "$.reference");
+        assertEquals(countBefore + 2, accountRepository.findAccountByStudentId("c6666666").getOutstandingCount());
+
+        mvc.perform(put("/invoices/" + first + "/pay")).andExpect(status().isOk());
+        assertEquals(countBefore + 1, accountRepository.findAccountByStudentId("c6666666").getOutstandingCount());
+        mvc.perform(delete("/invoices/" + second + "/cancel")).andExpect(status().isOk());
+        assertEquals(countBefore, accountRepository.findAccountByStudentId("c6666666").getOutstandingCount());
+    }
+
+    @Test
+    public void givenOutstandingInvoice_whenPaidConcurrently_thenExactlyOnePaymentWins() throws Exception {
+        int threads = 8;
+        long countBefore = accountRepository.findAccountByStudentId("c6666666").getOutstandingCount();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return mvc.perform(put("/invoices/" + outstandingInvoiceReference + "/pay")
+                                .contentType(MediaType.APPLICATION_JSON))
+                        .andReturn().getResponse().getStatus();
+            }));
+        }
+        start.countDown();
+        List<Integer> statuses = new ArrayList<>();
+        for (Future<Integer> result : results) {
+            statuses.add(result.get(30, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+
+        assertEquals(1, statuses.stream().filter(status -> status == 200).count());
+        assertTrue(statuses.stream().allMatch(status -> status == 200 || status == 405 || status == 409));
+        assertEquals(Status.PAID, invoiceRepository.findInvoiceByReference(outstandingInvoiceReference).getStatus());
+        assertEquals(countBefore - 1, accountRepository.findAccountByStudentId("c6666666").getOutstandingCount());
+    }
+
     @Test
     public void givenPaidInvoice_whenPay_thenStatus405() throws Exception {
         mvc.perform(put("/invoices/" + paidInvoiceReference + "/pay")
@@ -212,6 +442,193 @@ public class InvoiceControllerIntegrationTest {
                 .andExpect(status().isMethodNotAllowed());
     }
 
+    @Test
+    public void whenPostInvoiceBatch_thenValidItemsCreated_andInvalidItemsReported() throws Exception {
+        long countBefore = accountRepository.findAccountByStudentId("c6666666").getOutstandingCount();
+        mvc.perform(post("/invoices/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"amount\": 15.00, \"dueDate\": \"2021-11-06\", \"type\": \"LIBRARY_FINE\", \"account\": {\"studentId\": \"c6666666\"}},"
+                                + "{\"amount\": 20.00, \"dueDate\": \"2021-11-07\", \"type\": \"TUITION_FEES\", \"account\": {\"studentId\": \"c0000000\"}},"
+                                + "{\"amount\": 25.00, \"dueDate\": \"2021-11-08\", \"type\": \"TUITION_FEES\", \"account\": {\"studentId\": \"c6666666\"}}]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.created").value(2))
+                .andExpect(jsonPath("$.invalid").value(1))
+                .andExpect(jsonPath("$.failures.length()").value(1))
+                .andExpect(jsonPath("$.failures[0].index").value(1))
+                .andExpect(jsonPath("$.failures[0].outcome").value("INVALID"))
+                .andExpect(jsonPath("$.failures[0].studentId").value("c0000000"));
+
+        Account account = accountRepository.findAccountByStudentId("c6666666");
+        assertTrue(invoiceRepository.findInvoiceByAccount_IdAndStatus(account.getId(), Status.OUTSTANDING)
+                .stream()
+                .anyMatch(invoice -> invoice.getAmount() == 15.00 && invoice.getDueDate().equals(LocalDate.of(2021, 11, 6))));
+        assertEquals(countBefore + 2, account.getOutstandingCount());
+    }
+
+    @Test
+    public void whenPostInvoiceBatchAsNdjson_thenItemsCreated() throws Exception {
+        mvc.perform(post("/invoices/batch")
+                        .contentType("application/x-ndjson")
+                        .content("{\"amount\": 15.00, \"dueDate\": \"2021-11-06\", \"type\": \"LIBRARY_FINE\", \"account\": {\"studentId\": \"c6666666\"}}\n"
+                                + "{\"amount\": 25.00, \"dueDate\": \"2021-11-08\", \"type\": \"TUITION_FEES\", \"account\": {\"studentId\": \"c6666666\"}}\n"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.created").value(2))
+                .andExpect(jsonPath("$.failures").isEmpty());
+    }
+
+    @Test
+    public void givenCursor_whenGetInvoiceChanges_thenOnlyLaterChangesReturnedInOrder() throws Exception {
+        String start = mvc.perform(get("/invoices/changes")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        long cursor = ((Number) JsonPath.read(start, "$.cursor")).longValue();
+
+        mvc.perform(put("/invoices/" + outstandingInvoiceReference + "/pay"))
+                .andExpect(status().isOk());
+        String body = mvc.perform(post("/invoices")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"amount\": 15.00, \"dueDate\": \"2021-11-06\", \"type\": \"LIBRARY_FINE\", \"account\": {\"studentId\": \"c6666666\"}}"))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+        String createdReference = JsonPath.read(body, "$.reference");
+
+        String changes = mvc.perform(get("/invoices/changes?since=" + cursor + "&size=1")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.invoiceList.length()").value(1))
+                .andExpect(jsonPath("$._embedded.invoiceList[0].reference").value(outstandingInvoiceReference))
+                .andExpect(jsonPath("$._embedded.invoiceList[0].status").value("PAID"))
+                .andExpect(jsonPath("$._links.next.href").exists())
+                .andReturn().getResponse().getContentAsString();
+        long next = ((Number) JsonPath.read(changes, "$.cursor")).longValue();
+        assertTrue(next > cursor);
+
+        mvc.perform(get("/invoices/changes?since=" + next)
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.invoiceList.length()").value(1))
+                .andExpect(jsonPath("$._embedded.invoiceList[0].reference").value(createdReference))
+                .andExpect(jsonPath("$._links.next").doesNotExist());
+    }
+
+    @Test
+    public void givenReferences_whenLookup_thenInvoicesKeyedByReferenceInOneQuery() throws Exception {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        mvc.perform(post("/invoices/lookup")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[\"" + paidInvoiceReference + "\", \"ZZZZ0000\", \"" + outstandingInvoiceReference + "\"]"))
+                .andExpect(status().isOk())
+                .andExpect(content()
+                        .contentTypeCompatibleWith(MediaTypes.HAL_JSON))
+                .andExpect(jsonPath("$.results.length()").value(3))
+                .andExpect(jsonPath("$.results." + paidInvoiceReference + ".status").value("PAID"))
+                .andExpect(jsonPath("$.results." + paidInvoiceReference + ".studentId").value("c6666666"))
+                .andExpect(jsonPath("$.results." + outstandingInvoiceReference + ".status").value("OUTSTANDING"))
+                .andExpect(jsonPath("$.results." + outstandingInvoiceReference + "._links.pay.href").exists())
+                .andExpect(jsonPath("$.results.ZZZZ0000").value(nullValue()));
+
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void givenTooManyReferences_whenLookup_thenStatus400() throws Exception {
+        StringBuilder references = new StringBuilder("[");
+        for (int i = 0; i <= 10_000; i++) {
+            references.append(i == 0 ? "" : ",").append("\"R").append(i).append('"');
+        }
+        mvc.perform(post("/invoices/lookup")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(references.append(']').toString()))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("At most 10000 keys may be looked up at once."));
+    }
+
+    @Test
+    public void givenOutstandingLibraryFines_whenBulkCancel_thenCancelledWithSideEffectsOfSingleCancel() throws Exception {
+        Account account = accountRepository.findAccountByStudentId("c6666666");
+        List<String> fines = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            fines.add(JsonPath.read(mvc.perform(post("/invoices").contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"amount\": 2.00, \"dueDate\": \"2022-03-01\",\"type\": \"LIBRARY_FINE\",\"account\": {\"studentId\": \"c6666666\"}}"))
+                    .andExpect(status().isCreated())
+                    .andReturn().getResponse().getContentAsString(), "$.reference"));
+        }
+        long countBefore = accountRepository.findAccountByStudentId("c6666666").getOutstandingCount();
+        long cursor = ((Number) JsonPath.read(mvc.perform(get("/invoices/changes").param("since", "0").param("size", "1000"))
+                .andReturn().getResponse().getContentAsString(), "$.cursor")).longValue();
+
+        mvc.perform(post("/invoices/cancellations")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"type\": \"LIBRARY_FINE\", \"dueBefore\": \"2022-04-01\", \"accountId\": " + account.getId() + "}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.cancelled").value(3))
+                .andExpect(jsonPath("$.accounts").value(1));
+
+        for (String reference : fines) {
+            assertEquals(Status.CANCELLED, invoiceRepository.findInvoiceByReference(reference).getStatus());
+        }
+        assertEquals(Status.OUTSTANDING, invoiceRepository.findInvoiceByReference(outstandingInvoiceReference).getStatus());
+        assertEquals(countBefore - 3, accountRepository.findAccountByStudentId("c6666666").getOutstandingCount());
+        mvc.perform(get("/invoices/changes").param("since", String.valueOf(cursor)))
+                .andExpect(jsonPath("$._embedded.invoiceList.length()").value(3))
+                .andExpect(jsonPath("$._embedded.invoiceList[*].status", everyItem(is("CANCELLED"))));
+        mvc.perform(post("/invoices/cancellations")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"type\": \"LIBRARY_FINE\", \"accountId\": " + account.getId() + "}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.cancelled").value(0));
+    }
+
+    @Test
+    public void givenNoCriteria_whenBulkCancel_thenStatus422() throws Exception {
+        mvc.perform(post("/invoices/cancellations")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{}"))
+                .andExpect(status().isUnprocessableEntity());
+        assertEquals(Status.OUTSTANDING, invoiceRepository.findInvoiceByReference(outstandingInvoiceReference).getStatus());
+    }
+
+    @Test
+    public void givenInvoices_whenExportAsNdjson_thenOneLinePerMatchingInvoiceWithoutLoadingEntities() throws Exception {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        MvcResult result = mvc.perform(get("/invoices/export?type=LIBRARY_FINE&dueFrom=2022-01-01"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String[] lines = mvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andExpect(header().string("Content-Disposition", "attachment; filename=\"invoices.ndjson\""))
+                .andReturn().getResponse().getContentAsString().split("\n");
+
+        assertEquals(2, lines.length);
+        assertEquals(paidInvoiceReference, JsonPath.read(lines[0], "$.reference"));
+        assertEquals("c6666666", JsonPath.read(lines[0], "$.studentId"));
+        assertEquals(5.30, (Double) JsonPath.read(lines[0], "$.amount"));
+        assertEquals(cancelledInvoiceReference, JsonPath.read(lines[1], "$.reference"));
+        assertTrue(!lines[0].contains("_links"));
+        assertEquals(0, statistics.getEntityLoadCount());
+    }
+
+    @Test
+    public void givenInvoices_whenExportAsCsv_thenHeaderAndOneRowPerMatchingInvoice() throws Exception {
+        MvcResult result = mvc.perform(get("/invoices/export?format=CSV&status=OUTSTANDING"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String body = mvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("text/csv"))
+                .andReturn().getResponse().getContentAsString();
+
+        Invoice outstanding = invoiceRepository.findInvoiceByReference(outstandingInvoiceReference);
+        assertEquals("id,reference,studentId,amount,dueDate,type,status\n" +
+                outstanding.getId() + "," + outstandingInvoiceReference + ",c6666666,10.50,2021-12-25,TUITION_FEES,OUTSTANDING\n", body);
+    }
+
     @AfterEach
     public void tearDown() {
         invoiceRepository.deleteAll();
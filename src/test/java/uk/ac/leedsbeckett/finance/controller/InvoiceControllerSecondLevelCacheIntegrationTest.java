@@ -0,0 +1,86 @@
+package uk.ac.leedsbeckett.finance.controller;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.hateoas.MediaTypes;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import uk.ac.leedsbeckett.finance.model.*;
+import uk.ac.leedsbeckett.finance.service.ReferenceGenerator;
+
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDate;
+import java.time.Month;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(properties = {
+        "spring.jpa.properties.hibernate.cache.use_second_level_cache=true",
+        "spring.jpa.properties.hibernate.cache.use_query_cache=true"})
+@AutoConfigureMockMvc
+@AutoConfigureTestDatabase
+@ActiveProfiles("test")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class InvoiceControllerSecondLevelCacheIntegrationTest {
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private InvoiceRepository invoiceRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private ReferenceGenerator referenceGenerator;
+
+    private Long invoiceId;
+
+    @BeforeEach
+    public void setUp() {
+        Account account = accountRepository.save(new Account("c5550002"));
+        Invoice invoice = new Invoice(12.50, LocalDate.of(2022, Month.MARCH, 1), Type.LIBRARY_FINE, account);
+        invoice.setReference(referenceGenerator.next());
+        invoice.setStatus(Status.OUTSTANDING);
+        invoiceId = invoiceRepository.save(invoice).getId();
+        entityManagerFactory.getCache().evictAll();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        invoiceRepository.deleteAll();
+        accountRepository.deleteAll();
+        entityManagerFactory.getCache().evictAll();
+    }
+
+    @Test
+    public void givenCachedInvoice_whenGetInvoiceById_thenStatus200WithStudentId() throws Exception {
+        // The first request puts the invoice in the entity cache, which the second would be served from by findById
+        for (int i = 0; i < 2; i++) {
+            mvc.perform(get("/invoices/" + invoiceId)
+                            .contentType(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isOk())
+                    .andExpect(content()
+                            .contentTypeCompatibleWith(MediaTypes.HAL_JSON))
+                    .andExpect(jsonPath("$.studentId").value("c5550002"))
+                    .andExpect(jsonPath("$.id").value(invoiceId));
+        }
+        assertTrue(entityManagerFactory.getCache().contains(Invoice.class, invoiceId));
+    }
+}
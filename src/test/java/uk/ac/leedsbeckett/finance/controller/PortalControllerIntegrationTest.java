@@ -11,6 +11,7 @@ import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
 import uk.ac.leedsbeckett.finance.model.*;
+import uk.ac.leedsbeckett.finance.service.ReferenceGenerator;
 
 import java.time.LocalDate;
 import java.time.Month;
@@ -36,6 +37,9 @@ public class PortalControllerIntegrationTest {
     @Autowired
     private InvoiceRepository invoiceRepository;
 
+    @Autowired
+    private ReferenceGenerator referenceGenerator;
+
     private String invoiceReference;
     private Invoice outstandingInvoice;
 
@@ -45,6 +49,7 @@ public class PortalControllerIntegrationTest {
         account.setId(1L);
         accountRepository.save(account);
         outstandingInvoice = new Invoice(10.00, LocalDate.of(2022, Month.FEBRUARY, 15), Type.LIBRARY_FINE, account);
+        outstandingInvoice.setReference(referenceGenerator.next());
         outstandingInvoice.setStatus(Status.OUTSTANDING);
         Invoice outstandingInvoiceSaved = invoiceRepository.save(outstandingInvoice);
         invoiceReference = outstandingInvoiceSaved.getReference();
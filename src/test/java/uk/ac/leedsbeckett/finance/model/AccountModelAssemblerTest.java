@@ -6,11 +6,17 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.Links;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import uk.ac.leedsbeckett.finance.exception.AccountNotValidException;
 
+import java.util.List;
+import java.util.stream.Collectors;
+
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 @ExtendWith(SpringExtension.class)
@@ -30,6 +36,14 @@ class AccountModelAssemblerTest {
         account.setId(id);
     }
 
+    @Test
+    void testToModel_withCachedLinks_ReturnsSameLinksAsLinkBuilder() {
+        EntityModel<Account> result = accountModelAssembler.toModel(account);
+        assertEquals(withoutAffordances(new AccountModelAssembler(false).toModel(account).getLinks()),
+                withoutAffordances(result.getLinks()));
+        assertEquals("http://localhost/accounts/student/c7777777", result.getRequiredLink("self").getHref());
+    }
+
     @Test
     void testToModel_withValidAccount_ReturnsExpectedEntityModel() {
         EntityModel<Account> result = accountModelAssembler.toModel(account);
@@ -58,4 +72,11 @@ class AccountModelAssemblerTest {
         assertThrows(RuntimeException.class, () -> accountModelAssembler.toModel(null),
                 "Exception was not thrown.");
     }
-}
\ No newline at end of file
+
+    // Cached links carry no affordances, which HAL does not render
+    private static List<Link> withoutAffordances(Links links) {
+        return links.stream()
+                .map(link -> Link.of(link.getHref(), link.getRel()))
+                .collect(Collectors.toList());
+    }
+}
@@ -1,19 +1,28 @@
 package uk.ac.leedsbeckett.finance.model;
 
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.Links;
+import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 import uk.ac.leedsbeckett.finance.exception.InvoiceNotValidException;
 
 import java.time.LocalDate;
 import java.time.Month;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 @ExtendWith(SpringExtension.class)
@@ -37,6 +46,7 @@ class InvoiceModelAssemblerTest {
         invoice = new Invoice(amount, dueDate, invoiceType, account);
         account.setId(accountId);
         invoice.setId(invoiceId);
+        invoice.setReference("1234ABCD");
     }
 
     @Test
@@ -71,6 +81,41 @@ class InvoiceModelAssemblerTest {
         assertThat(result.hasLink("http://localhost/invoices/cancel"));
     }
 
+    @AfterEach
+    public void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void testToModel_withCachedLinks_ReturnsSameLinksAsLinkBuilder() {
+        InvoiceModelAssembler linkBuilderAssembler = new InvoiceModelAssembler(false);
+        for (Status status : Status.values()) {
+            invoice.setStatus(status);
+            assertEquals(withoutAffordances(linkBuilderAssembler.toModel(invoice).getLinks()),
+                    withoutAffordances(invoiceModelAssembler.toModel(invoice).getLinks()));
+        }
+    }
+
+    @Test
+    void testToModel_withCachedLinksInRequest_UsesBaseUrlOfEachRequest() {
+        InvoiceModelAssembler linkBuilderAssembler = new InvoiceModelAssembler(false);
+        invoice.setStatus(Status.OUTSTANDING);
+        for (String host : new String[]{"finance.example.com", "other.example.com"}) {
+            MockHttpServletRequest request = new MockHttpServletRequest();
+            request.setScheme("https");
+            request.setServerName(host);
+            request.setServerPort(8443);
+            request.setContextPath("/finance");
+            RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+
+            EntityModel<Invoice> result = invoiceModelAssembler.toModel(invoice);
+
+            assertEquals(withoutAffordances(linkBuilderAssembler.toModel(invoice).getLinks()), withoutAffordances(result.getLinks()));
+            assertEquals("https://" + host + ":8443/finance/invoices/reference/" + invoice.getReference(),
+                    result.getRequiredLink("self").getHref());
+        }
+    }
+
     @Test
     void testToModel_withIdNull_ThrowsException() {
         invoice.setId(null);
@@ -119,4 +164,10 @@ class InvoiceModelAssemblerTest {
                 "Exception was not thrown.");
     }
 
-}
\ No newline at end of file
+    // Cached links carry no affordances, which HAL does not render
+    private static List<Link> withoutAffordances(Links links) {
+        return links.stream()
+                .map(link -> Link.of(link.getHref(), link.getRel()))
+                .collect(Collectors.toList());
+    }
+}
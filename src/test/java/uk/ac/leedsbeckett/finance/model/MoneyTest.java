@@ -0,0 +1,45 @@
+package uk.ac.leedsbeckett.finance.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.Month;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MoneyTest {
+
+    @Test
+    void testToMinor_convertsDecimalAmountsExactly() {
+        assertEquals(1050, Money.toMinor(10.5));
+        assertEquals(2099, Money.toMinor(20.99));
+        assertEquals(1, Money.toMinor(0.01));
+        assertEquals(-3785, Money.toMinor(-37.85));
+        assertEquals(100_000_000_00L, Money.toMinor(100_000_000.00));
+    }
+
+    @Test
+    void testToMinor_roundsSubPenniesHalfUp() {
+        assertEquals(101, Money.toMinor(1.005));
+        assertEquals(100, Money.toMinor(1.004));
+    }
+
+    @Test
+    void testToMajor_roundTripsEveryPennyOfASmallRange() {
+        for (long minor = -100_000; minor <= 100_000; minor++) {
+            assertEquals(minor, Money.toMinor(Money.toMajor(minor)));
+        }
+        assertEquals(10.05, Money.toMajor(1005));
+    }
+
+    @Test
+    void testInvoiceAmount_isStoredInMinorUnits() {
+        Invoice invoice = new Invoice(12.34, LocalDate.of(2022, Month.MAY, 1), Type.LIBRARY_FINE, new Account("c7777777"));
+        assertEquals(1234L, invoice.getAmountMinor());
+        assertEquals(12.34, invoice.getAmount());
+        invoice.setAmount(null);
+        assertNull(invoice.getAmountMinor());
+        assertNull(invoice.getAmount());
+    }
+}
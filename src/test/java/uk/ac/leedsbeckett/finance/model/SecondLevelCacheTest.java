@@ -0,0 +1,226 @@
+package uk.ac.leedsbeckett.finance.model;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.SessionFactory;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.Cache;
+import javax.persistence.CacheRetrieveMode;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(properties = {
+        "spring.jpa.properties.hibernate.cache.use_second_level_cache=true",
+        "spring.jpa.properties.hibernate.cache.use_query_cache=true"})
+@AutoConfigureMetrics
+@ActiveProfiles("test")
+class SecondLevelCacheTest {
+
+    private static final Logger log = LoggerFactory.getLogger(SecondLevelCacheTest.class);
+    private static final String RETRIEVE_MODE = "javax.persistence.cache.retrieveMode";
+
+    @Autowired
+    private AccountRepository accountRepository;
+    @Autowired
+    private InvoiceRepository invoiceRepository;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Statistics statistics;
+    private Account account;
+
+    @BeforeEach
+    void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        account = accountRepository.save(new Account("c5550001"));
+        Invoice invoice = new Invoice(25.0, LocalDate.now().plusDays(30), Type.LIBRARY_FINE, account);
+        invoice.setReference("L2CACHE1");
+        invoice.setStatus(Status.OUTSTANDING);
+        invoiceRepository.save(invoice);
+        entityManagerFactory.getCache().evictAll();
+        statistics.clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        invoiceRepository.deleteAll();
+        accountRepository.deleteAll();
+        entityManagerFactory.getCache().evictAll();
+    }
+
+    @Test
+    void testEntities_areCachedWithConfiguredConcurrencyStrategy() {
+        SessionFactoryImplementor sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        assertEquals(AccessType.READ_WRITE, sessionFactory.getMetamodel()
+                .entityPersister(Account.class).getCacheAccessStrategy().getAccessType());
+        assertEquals(AccessType.READ_WRITE, sessionFactory.getMetamodel()
+                .entityPersister(Invoice.class).getCacheAccessStrategy().getAccessType());
+    }
+
+    @Test
+    void testFindById_hotRead_isServedWithoutStatements() {
+        accountRepository.findById(account.getId());
+        long statements = statistics.getPrepareStatementCount();
+
+        Account cached = accountRepository.findById(account.getId()).orElseThrow();
+
+        assertEquals(account.getStudentId(), cached.getStudentId());
+        assertEquals(statements, statistics.getPrepareStatementCount());
+        assertEquals(1, statistics.getSecondLevelCacheHitCount());
+    }
+
+    @Test
+    void testFindAccountByStudentId_hotRead_isServedFromQueryCache() {
+        accountRepository.findAccountByStudentId(account.getStudentId());
+        long statements = statistics.getPrepareStatementCount();
+
+        Account cached = accountRepository.findAccountByStudentId(account.getStudentId());
+
+        assertEquals(account.getId(), cached.getId());
+        assertEquals(statements, statistics.getPrepareStatementCount());
+        assertEquals(1, statistics.getQueryCacheHitCount());
+    }
+
+    @Test
+    void testFindAccountByStudentId_afterJdbcInsert_seesNewAccount() {
+        assertNull(accountRepository.findAccountByStudentId("c5550002"));
+
+        transactionTemplate.executeWithoutResult(status -> accountRepository.insertAll(List.of("c5550002")));
+
+        assertNotNull(accountRepository.findAccountByStudentId("c5550002"));
+    }
+
+    @Test
+    void testFindById_afterJdbcAdjustOutstanding_seesNewTotals() {
+        accountRepository.findById(account.getId());
+        Invoice invoice = new Invoice(40.0, LocalDate.now().plusDays(30), Type.TUITION_FEES, account);
+
+        transactionTemplate.executeWithoutResult(status -> accountRepository.adjustOutstanding(List.of(invoice), 1));
+
+        Account reloaded = accountRepository.findById(account.getId()).orElseThrow();
+        assertEquals(1, reloaded.getOutstandingCount());
+        assertEquals(40.0, reloaded.getOutstandingAmount());
+    }
+
+    @Test
+    void testUpdateStatus_evictsOnlyThatInvoice() {
+        Invoice other = new Invoice(5.0, LocalDate.now().plusDays(30), Type.LIBRARY_FINE, account);
+        other.setReference("L2CACHE2");
+        other.setStatus(Status.OUTSTANDING);
+        Long otherId = invoiceRepository.save(other).getId();
+        Long invoiceId = invoiceRepository.findInvoiceByReference("L2CACHE1").getId();
+        invoiceRepository.findById(invoiceId);
+        invoiceRepository.findById(otherId);
+
+        transactionTemplate.executeWithoutResult(status ->
+                invoiceRepository.updateStatus(invoiceId, Status.OUTSTANDING, Status.PAID, 1L));
+
+        Cache cache = entityManagerFactory.getCache();
+        assertFalse(cache.contains(Invoice.class, invoiceId));
+        assertTrue(cache.contains(Invoice.class, otherId));
+        assertEquals(Status.PAID, invoiceRepository.findById(invoiceId).orElseThrow().getStatus());
+    }
+
+    @Test
+    void testAdjustOutstanding_evictsOnlyThatAccount_andKeepsQueryResults() {
+        Account other = accountRepository.save(new Account("c5550003"));
+        accountRepository.findById(account.getId());
+        accountRepository.findById(other.getId());
+        accountRepository.findAccountByStudentId(other.getStudentId());
+        statistics.clear();
+
+        transactionTemplate.executeWithoutResult(status -> accountRepository.adjustOutstanding(account.getId(), 1, 4000));
+
+        Cache cache = entityManagerFactory.getCache();
+        assertFalse(cache.contains(Account.class, account.getId()));
+        assertTrue(cache.contains(Account.class, other.getId()));
+        accountRepository.findAccountByStudentId(other.getStudentId());
+        assertEquals(1, statistics.getQueryCacheHitCount());
+        assertEquals(40.0, accountRepository.findById(account.getId()).orElseThrow().getOutstandingAmount());
+    }
+
+    @Test
+    void testStatistics_arePublishedAsMetrics() {
+        accountRepository.findById(account.getId());
+        accountRepository.findById(account.getId());
+
+        assertNotNull(meterRegistry.find("hibernate.second.level.cache.requests").tag("result", "hit").functionCounter());
+        assertNotNull(meterRegistry.find("hibernate.cache.query.requests").tag("result", "hit").functionCounter());
+    }
+
+    /**
+     * Compares hot read latency of an account by primary key with and without the second-level cache, on H2.
+     * Timings depend on the machine, so they are logged rather than asserted; the statement counts are asserted.
+     */
+    @Test
+    void benchmarkHotRead_withAndWithoutSecondLevelCache() {
+        int warmUp = 2_000;
+        int iterations = 10_000;
+        Function<CacheRetrieveMode, long[]> run = mode -> {
+            read(mode, warmUp);
+            return read(mode, iterations);
+        };
+
+        accountRepository.findById(account.getId());
+        long statements = statistics.getPrepareStatementCount();
+        long[] cached = run.apply(CacheRetrieveMode.USE);
+        long cachedStatements = statistics.getPrepareStatementCount() - statements;
+
+        statements = statistics.getPrepareStatementCount();
+        long[] uncached = run.apply(CacheRetrieveMode.BYPASS);
+        long uncachedStatements = statistics.getPrepareStatementCount() - statements;
+
+        log.info(String.format("Hot account read over %d iterations: with L2 cache p50=%dns p99=%dns, without p50=%dns p99=%dns",
+                iterations, percentile(cached, 50), percentile(cached, 99), percentile(uncached, 50), percentile(uncached, 99)));
+        assertEquals(0, cachedStatements);
+        assertEquals(warmUp + iterations, uncachedStatements);
+    }
+
+    private long[] read(CacheRetrieveMode mode, int iterations) {
+        Map<String, Object> hints = Map.of(RETRIEVE_MODE, mode);
+        long[] nanos = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            EntityManager entityManager = entityManagerFactory.createEntityManager();
+            try {
+                long start = System.nanoTime();
+                entityManager.find(Account.class, account.getId(), hints);
+                nanos[i] = System.nanoTime() - start;
+            } finally {
+                entityManager.close();
+            }
+        }
+        return nanos;
+    }
+
+    private static long percentile(long[] nanos, int percentile) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+    }
+}
@@ -0,0 +1,69 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import uk.ac.leedsbeckett.finance.model.AccountRepository;
+import uk.ac.leedsbeckett.finance.model.BatchOutcome;
+import uk.ac.leedsbeckett.finance.model.BatchResult;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@ActiveProfiles("test")
+class AccountBatchServiceTest {
+
+    @MockBean
+    private AccountRepository accountRepository;
+    @Autowired
+    private AccountBatchService accountBatchService;
+
+    @Test
+    void testImportAccounts_checksExistingStudentIdsOnce_andInsertsNewOnesInOneBatch() {
+        Mockito.when(accountRepository.findExistingStudentIds(anyCollection()))
+                .thenReturn(Collections.singletonList("c2222222"));
+
+        BatchResult result = accountBatchService.importAccounts(
+                Arrays.asList("c1111111", "c2222222", " c3333333 ", "", "c1111111").iterator());
+
+        assertEquals(2, result.getCreated());
+        assertEquals(2, result.getDuplicate());
+        assertEquals(1, result.getInvalid());
+        assertEquals(3, result.getFailures().size());
+        assertEquals("c1111111", result.getFailures().get(2).getStudentId());
+        verify(accountRepository, times(1)).findExistingStudentIds(anyCollection());
+        verify(accountRepository, times(1)).insertAll(eq(Set.of("c1111111", "c3333333")));
+    }
+
+    @Test
+    void testImportAccounts_whenBatchHitsConcurrentInsert_retriesRowByRow() {
+        Mockito.when(accountRepository.findExistingStudentIds(anyCollection())).thenReturn(Collections.emptyList());
+        Mockito.doThrow(new DataIntegrityViolationException("duplicate"))
+                .when(accountRepository).insertAll(eq(Set.of("c1111111", "c2222222")));
+        Mockito.doThrow(new DataIntegrityViolationException("duplicate"))
+                .when(accountRepository).insertAll(eq(Collections.singletonList("c2222222")));
+
+        BatchResult result = accountBatchService.importAccounts(Arrays.asList("c1111111", "c2222222").iterator());
+
+        assertEquals(1, result.getCreated());
+        assertEquals(1, result.getDuplicate());
+        assertEquals(BatchOutcome.DUPLICATE, result.getFailures().get(0).getOutcome());
+        assertEquals(1, result.getFailures().get(0).getIndex());
+        verify(accountRepository, times(1)).insertAll(eq(Collections.singletonList("c1111111")));
+    }
+}
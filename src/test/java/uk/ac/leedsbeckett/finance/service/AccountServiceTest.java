@@ -10,21 +10,29 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.hateoas.CollectionModel;
 import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.IanaLinkRelations;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import uk.ac.leedsbeckett.finance.controller.AccountController;
 import uk.ac.leedsbeckett.finance.exception.AccountNotFoundException;
+import uk.ac.leedsbeckett.finance.exception.PageRequestNotValidException;
 import uk.ac.leedsbeckett.finance.model.Account;
+import uk.ac.leedsbeckett.finance.model.AccountFilter;
 import uk.ac.leedsbeckett.finance.model.AccountModelAssembler;
 import uk.ac.leedsbeckett.finance.model.AccountRepository;
+import uk.ac.leedsbeckett.finance.model.InvoiceRepository;
 
 import java.util.Arrays;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
@@ -41,6 +49,8 @@ class AccountServiceTest {
     private Account anotherAccount;
     @MockBean
     private AccountRepository accountRepository;
+    @MockBean
+    private InvoiceRepository invoiceRepository;
     @SpyBean
     private AccountModelAssembler accountModelAssembler;
     @Autowired
@@ -58,11 +68,12 @@ class AccountServiceTest {
                 .thenReturn(account);
         Mockito.when(accountRepository.findById(id))
                 .thenReturn(Optional.of(account));
-        Mockito.when(accountRepository.findAll())
+        Mockito.when(accountRepository.findPage(any(), any(), any(), anyInt()))
                 .thenReturn(Arrays.asList(account, anotherAccount));
         Mockito.when(accountRepository.save(account))
                 .thenReturn(account);
-        Mockito.doNothing().when(accountRepository).delete(account);
+        Mockito.when(accountRepository.deleteAccountById(id))
+                .thenReturn(1);
     }
 
     @Test
@@ -116,18 +127,56 @@ class AccountServiceTest {
 
     @Test
     void testGetAllAccounts_returnsExistingAccounts() {
-        CollectionModel<EntityModel<Account>> result = accountService.getAllAccounts();
+        CollectionModel<EntityModel<Account>> result = accountService.getAllAccounts(new AccountFilter(), null, null, null);
         assertEquals(2, result.getContent().size());
         assertThat(result.getContent().containsAll(Arrays.asList(account, anotherAccount)));
+        assertFalse(result.hasLink(IanaLinkRelations.NEXT));
+        assertFalse(result.hasLink(IanaLinkRelations.PREV));
         verify(accountModelAssembler, times(1)).toModel(account);
         verify(accountModelAssembler, times(1)).toModel(anotherAccount);
     }
 
+    @Test
+    void testGetAllAccounts_withMoreRowsThanPageSize_returnsOnePageAndNextLink() {
+        CollectionModel<EntityModel<Account>> result = accountService.getAllAccounts(new AccountFilter(), null, null, 1);
+        assertEquals(1, result.getContent().size());
+        assertEquals("http://localhost/accounts?after=1&size=1", result.getRequiredLink(IanaLinkRelations.NEXT).getHref());
+        assertFalse(result.hasLink(IanaLinkRelations.PREV));
+        verify(accountRepository, times(1)).findPage(any(), isNull(), isNull(), eq(2));
+        verify(accountModelAssembler, times(0)).toModel(anotherAccount);
+    }
+
+    @Test
+    void testGetAllAccounts_withAfterCursor_returnsPreviousLink() {
+        CollectionModel<EntityModel<Account>> result = accountService.getAllAccounts(new AccountFilter("c", null), 0L, null, 5);
+        assertEquals(2, result.getContent().size());
+        assertEquals("http://localhost/accounts?before=1&size=5&studentIdPrefix=c", result.getRequiredLink(IanaLinkRelations.PREV).getHref());
+        assertFalse(result.hasLink(IanaLinkRelations.NEXT));
+    }
+
+    @Test
+    void testGetAllAccounts_withPageSizeTooLarge_capsPageSize() {
+        accountService.getAllAccounts(new AccountFilter(), null, null, 1_000_000);
+        verify(accountRepository, times(1)).findPage(any(), isNull(), isNull(), eq(Pagination.MAX_PAGE_SIZE + 1));
+    }
+
+    @Test
+    void testGetAllAccounts_withPageSizeZero_throwsException() {
+        assertThrows(PageRequestNotValidException.class, () -> accountService.getAllAccounts(new AccountFilter(), null, null, 0),
+                "Exception was not thrown.");
+    }
+
+    @Test
+    void testGetAllAccounts_withBothCursors_throwsException() {
+        assertThrows(PageRequestNotValidException.class, () -> accountService.getAllAccounts(new AccountFilter(), 1L, 5L, null),
+                "Exception was not thrown.");
+    }
+
     @Test
     void testCreateNewAccount_withValidData_createsAccount() {
         EntityModel<Account> accountEntityModel = EntityModel.of(account,
                 linkTo(methodOn(AccountController.class).getStudentAccount(account.getStudentId())).withSelfRel(),
-                linkTo(methodOn(AccountController.class).all()).withRel("accounts"));
+                linkTo(methodOn(AccountController.class).all(null, null, null, null, null, null, null)).withRel("accounts").expand());
         assertEquals(accountEntityModel, accountService.createNewAccount(account).getBody());
         verify(accountModelAssembler, times(1)).toModel(account);
     }
@@ -135,7 +184,8 @@ class AccountServiceTest {
     @Test
     void testDeleteAccount_withValidId_deletesAccount() {
         accountService.deleteAccount(id);
-        verify(accountRepository, times(1)).delete(account);
+        verify(invoiceRepository, times(1)).deleteByAccountId(id);
+        verify(accountRepository, times(1)).deleteAccountById(id);
         verify(accountModelAssembler, times(0)).toModel(any());
     }
 }
\ No newline at end of file
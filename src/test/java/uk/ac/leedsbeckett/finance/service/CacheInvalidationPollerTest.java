@@ -0,0 +1,149 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import uk.ac.leedsbeckett.finance.model.Account;
+import uk.ac.leedsbeckett.finance.model.CacheInvalidation;
+import uk.ac.leedsbeckett.finance.model.Invoice;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+/**
+ * Two application instances, A and B, each with its own caches, connected by the in-memory transport.
+ */
+class CacheInvalidationPollerTest {
+
+    private EntityCache cacheA;
+    private EntityCache cacheB;
+    private CacheInvalidationPoller pollerA;
+    private CacheInvalidationPoller pollerB;
+    private Cache secondLevelCacheB;
+    private org.hibernate.Cache hibernateCacheB;
+    private Supplier<String> loader;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        List<CacheInvalidation> log = new ArrayList<>();
+        InvalidationTransport transportA = new InMemoryInvalidationTransport(log, "A");
+        InvalidationTransport transportB = new InMemoryInvalidationTransport(log, "B");
+        secondLevelCacheB = mock(Cache.class);
+        hibernateCacheB = mock(org.hibernate.Cache.class);
+        cacheA = new EntityCache(cacheManager(), transportA, entityManagerFactory(mock(Cache.class), mock(org.hibernate.Cache.class)));
+        cacheB = new EntityCache(cacheManager(), transportB, entityManagerFactory(secondLevelCacheB, hibernateCacheB));
+        pollerA = new CacheInvalidationPoller(transportA, cacheA);
+        pollerB = new CacheInvalidationPoller(transportB, cacheB);
+        loader = mock(Supplier.class);
+        when(loader.get()).thenReturn("loaded");
+    }
+
+    @Test
+    void testEvictOnA_isAppliedOnB_atNextPoll() {
+        cacheB.get(EntityCache.INVOICES_BY_REFERENCE, "1234ABCD", loader);
+
+        cacheA.evict(EntityCache.INVOICES_BY_REFERENCE, "1234ABCD");
+        cacheB.get(EntityCache.INVOICES_BY_REFERENCE, "1234ABCD", loader);
+        verify(loader, times(1)).get();
+
+        pollerB.poll();
+        cacheB.get(EntityCache.INVOICES_BY_REFERENCE, "1234ABCD", loader);
+        verify(loader, times(2)).get();
+        verify(secondLevelCacheB).evict(Invoice.class);
+    }
+
+    @Test
+    void testEvictAccountOnA_evictsBothKeysAndSecondLevelEntryOnB() {
+        Account account = new Account("c7777777");
+        account.setId(7L);
+        cacheB.get(EntityCache.ACCOUNTS_BY_ID, 7L, loader);
+        cacheB.get(EntityCache.ACCOUNTS_BY_STUDENT_ID, "c7777777", loader);
+
+        cacheA.evictAccount(account);
+        pollerB.poll();
+
+        cacheB.get(EntityCache.ACCOUNTS_BY_ID, 7L, loader);
+        cacheB.get(EntityCache.ACCOUNTS_BY_STUDENT_ID, "c7777777", loader);
+        verify(loader, times(4)).get();
+        verify(secondLevelCacheB).evict(Account.class, 7L);
+        verify(hibernateCacheB).evictQueryRegions();
+    }
+
+    @Test
+    void testEvictInvoiceOnA_evictsOnlyThatInvoiceFromSecondLevelCacheOnB() {
+        Invoice invoice = new Invoice();
+        invoice.setId(3L);
+        invoice.setReference("1234ABCD");
+        cacheB.get(EntityCache.INVOICES_BY_REFERENCE, "1234ABCD", loader);
+
+        cacheA.evictInvoice(invoice);
+        pollerB.poll();
+
+        cacheB.get(EntityCache.INVOICES_BY_REFERENCE, "1234ABCD", loader);
+        verify(loader, times(2)).get();
+        verify(secondLevelCacheB).evict(Invoice.class, 3L);
+        verify(secondLevelCacheB, never()).evict(Invoice.class);
+    }
+
+    @Test
+    void testEvictAccountTotalsOnA_keepsQueryResultsOnB() {
+        Account account = new Account("c7777777");
+        account.setId(7L);
+        cacheB.get(EntityCache.ACCOUNTS_BY_STUDENT_ID, "c7777777", loader);
+
+        cacheA.evictAccountTotals(account);
+        pollerB.poll();
+
+        cacheB.get(EntityCache.ACCOUNTS_BY_STUDENT_ID, "c7777777", loader);
+        verify(loader, times(2)).get();
+        verify(secondLevelCacheB, atLeastOnce()).evict(Account.class, 7L);
+        verify(hibernateCacheB, never()).evictQueryRegions();
+    }
+
+    @Test
+    void testClearOnA_clearsCacheOnB() {
+        cacheB.get(EntityCache.INVOICES_BY_REFERENCE, "1234ABCD", loader);
+        cacheB.get(EntityCache.INVOICES_BY_REFERENCE, "5678EFGH", loader);
+
+        cacheA.clear(EntityCache.INVOICES_BY_REFERENCE);
+        pollerB.poll();
+
+        cacheB.get(EntityCache.INVOICES_BY_REFERENCE, "1234ABCD", loader);
+        cacheB.get(EntityCache.INVOICES_BY_REFERENCE, "5678EFGH", loader);
+        verify(loader, times(4)).get();
+    }
+
+    @Test
+    void testOwnEvictions_areNotReceivedBack() {
+        cacheA.evict(EntityCache.INVOICES_BY_REFERENCE, "1234ABCD");
+        cacheA.get(EntityCache.INVOICES_BY_REFERENCE, "1234ABCD", loader);
+
+        pollerA.poll();
+        cacheA.get(EntityCache.INVOICES_BY_REFERENCE, "1234ABCD", loader);
+
+        verify(loader, times(1)).get();
+        assertEquals("loaded", cacheA.get(EntityCache.INVOICES_BY_REFERENCE, "1234ABCD", loader));
+    }
+
+    private static ConcurrentMapCacheManager cacheManager() {
+        return new ConcurrentMapCacheManager(
+                EntityCache.ACCOUNTS_BY_ID, EntityCache.ACCOUNTS_BY_STUDENT_ID, EntityCache.INVOICES_BY_REFERENCE);
+    }
+
+    private static EntityManagerFactory entityManagerFactory(Cache secondLevelCache, org.hibernate.Cache hibernateCache) {
+        EntityManagerFactory entityManagerFactory = mock(EntityManagerFactory.class);
+        SessionFactory sessionFactory = mock(SessionFactory.class);
+        when(entityManagerFactory.getCache()).thenReturn(secondLevelCache);
+        when(entityManagerFactory.unwrap(SessionFactory.class)).thenReturn(sessionFactory);
+        when(sessionFactory.getCache()).thenReturn(hibernateCache);
+        return entityManagerFactory;
+    }
+}
@@ -0,0 +1,178 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.CacheManager;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.web.context.request.RequestContextHolder;
+import uk.ac.leedsbeckett.finance.model.*;
+
+import java.time.LocalDate;
+import java.time.Month;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(properties = "spring.cache.type=caffeine")
+@AutoConfigureMetrics
+@ActiveProfiles("test")
+class EntityCacheTest {
+
+    private final String studentId = "c7777777";
+    private final String reference = "1234ABCD";
+    private Account account;
+    private Invoice invoice;
+
+    @MockBean
+    private AccountRepository accountRepository;
+    @MockBean
+    private InvoiceRepository invoiceRepository;
+    @Autowired
+    private AccountService accountService;
+    @Autowired
+    private InvoiceService invoiceService;
+    @Autowired
+    private EntityCache entityCache;
+    @Autowired
+    private CacheManager cacheManager;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void setUp() {
+        // Every call below stands for a separate request, so the per-request lookup cache must not apply
+        RequestContextHolder.resetRequestAttributes();
+        cacheManager.getCacheNames().forEach(name -> cacheManager.getCache(name).clear());
+        account = new Account(studentId);
+        account.setId(1L);
+        invoice = new Invoice(10.5, LocalDate.of(2021, Month.DECEMBER, 25), Type.TUITION_FEES, account);
+        invoice.setId(1L);
+        invoice.setReference(reference);
+        invoice.setStatus(Status.OUTSTANDING);
+        Mockito.when(accountRepository.findAccountByStudentId(studentId)).thenReturn(account);
+        Mockito.when(accountRepository.findById(1L)).thenReturn(Optional.of(account));
+        Mockito.when(accountRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        Mockito.when(invoiceRepository.findInvoiceByReference(reference)).thenReturn(invoice);
+        Mockito.when(invoiceRepository.updateStatus(eq(1L), eq(Status.OUTSTANDING), any(), anyLong())).thenReturn(1);
+    }
+
+    @Test
+    void testGetAccountByStudentId_isServedFromCache_untilAccountUpdated() {
+        accountService.getAccountByStudentId(studentId);
+        accountService.getAccountByStudentId(studentId);
+        verify(accountRepository, times(1)).findAccountByStudentId(studentId);
+
+        accountService.updateOrCreateAccount(new Account(studentId), 1L);
+        accountService.getAccountByStudentId(studentId);
+        verify(accountRepository, times(2)).findAccountByStudentId(studentId);
+    }
+
+    @Test
+    void testGetAccountById_isServedFromCache_untilAccountDeleted() {
+        accountService.getAccountById(1L);
+        accountService.getAccountById(1L);
+        verify(accountRepository, times(1)).findById(1L);
+
+        accountService.deleteAccount(1L);
+        accountService.getAccountById(1L);
+        // once by the delete itself and once by the lookup after it
+        verify(accountRepository, times(3)).findById(1L);
+    }
+
+    @Test
+    void testGetInvoiceByReference_isServedFromCache_untilInvoicePaid() {
+        invoiceService.getInvoiceByReference(reference);
+        invoiceService.getInvoiceByReference(reference);
+        verify(invoiceRepository, times(1)).findInvoiceByReference(reference);
+
+        // once more by the payment, which never works on a cached invoice, and once by the lookup after it
+        invoiceService.pay(reference);
+        invoiceService.getInvoiceByReference(reference);
+        verify(invoiceRepository, times(3)).findInvoiceByReference(reference);
+    }
+
+    @Test
+    void testGetInvoiceByReference_returnsCopies_thatReadersCannotChangeForOthers() {
+        Invoice first = invoiceService.getInvoiceByReference(reference).getContent();
+        first.setStatus(Status.PAID);
+        first.getAccount().setOutstandingCount(99);
+
+        Invoice second = invoiceService.getInvoiceByReference(reference).getContent();
+        Invoice third = invoiceService.getInvoiceByReference(reference).getContent();
+        verify(invoiceRepository, times(1)).findInvoiceByReference(reference);
+        assertEquals(Status.OUTSTANDING, second.getStatus());
+        assertEquals(0, second.getAccount().getOutstandingCount());
+        assertNotSame(second, third);
+    }
+
+    @Test
+    void testGet_evictedWhileLoading_doesNotKeepWhatWasLoaded() {
+        Invoice loaded = entityCache.get(EntityCache.INVOICES_BY_REFERENCE, reference, () -> {
+            // A writer commits and evicts after this reader has read the old row
+            Invoice stale = invoice.copy();
+            entityCache.evictInvoice(invoice);
+            return stale;
+        });
+        assertNotSame(invoice, loaded);
+
+        AtomicInteger loads = new AtomicInteger();
+        entityCache.get(EntityCache.INVOICES_BY_REFERENCE, reference, () -> {
+            loads.incrementAndGet();
+            return invoice;
+        });
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void testGet_onMiss_returnsCopyOfWhatWasLoaded() {
+        Invoice loaded = entityCache.get(EntityCache.INVOICES_BY_REFERENCE, reference, () -> invoice);
+        assertNotSame(invoice, loaded);
+        assertEquals(reference, loaded.getReference());
+    }
+
+    @Test
+    void testCancel_evictsInvoiceAndAccount() {
+        invoiceService.getInvoiceByReference(reference);
+        accountService.getAccountByStudentId(studentId);
+
+        invoiceService.cancel(reference);
+        invoiceService.getInvoiceByReference(reference);
+        accountService.getAccountByStudentId(studentId);
+        verify(invoiceRepository, times(3)).findInvoiceByReference(reference);
+        verify(accountRepository, times(2)).findAccountByStudentId(studentId);
+    }
+
+    @Test
+    void testCacheMetrics_countHitsAndMisses() {
+        double hitsBefore = gets(EntityCache.ACCOUNTS_BY_STUDENT_ID, "hit");
+        double missesBefore = gets(EntityCache.ACCOUNTS_BY_STUDENT_ID, "miss");
+
+        accountService.getAccountByStudentId(studentId);
+        accountService.getAccountByStudentId(studentId);
+
+        assertEquals(1, gets(EntityCache.ACCOUNTS_BY_STUDENT_ID, "hit") - hitsBefore);
+        assertEquals(1, gets(EntityCache.ACCOUNTS_BY_STUDENT_ID, "miss") - missesBefore);
+        assertTrue(meterRegistry.find("cache.evictions").tag("cache", EntityCache.INVOICES_BY_REFERENCE).functionCounter() != null);
+    }
+
+    private double gets(String cache, String result) {
+        return meterRegistry.get("cache.gets").tag("cache", cache).tag("result", result).functionCounter().count();
+    }
+}
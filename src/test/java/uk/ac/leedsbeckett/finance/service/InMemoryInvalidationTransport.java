@@ -0,0 +1,46 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import uk.ac.leedsbeckett.finance.model.CacheInvalidation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Stand-in for the database transport: instances created with the same log exchange invalidations
+ * as application instances sharing a database would, without the database.
+ */
+class InMemoryInvalidationTransport implements InvalidationTransport {
+
+    private final List<CacheInvalidation> log;
+    private final String origin;
+    private int position;
+
+    InMemoryInvalidationTransport(List<CacheInvalidation> log, String origin) {
+        this.log = log;
+        this.origin = origin;
+        this.position = log.size();
+    }
+
+    @Override
+    public void publish(Collection<CacheInvalidation> invalidations) {
+        synchronized (log) {
+            for (CacheInvalidation invalidation : invalidations) {
+                invalidation.setOrigin(origin);
+                log.add(invalidation);
+            }
+        }
+    }
+
+    @Override
+    public List<CacheInvalidation> receive() {
+        synchronized (log) {
+            List<CacheInvalidation> received = new ArrayList<>(log.subList(position, log.size()));
+            position = log.size();
+            return received.stream()
+                    .filter(invalidation -> !origin.equals(invalidation.getOrigin()))
+                    .collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import uk.ac.leedsbeckett.finance.exception.InvoiceNotValidException;
+import uk.ac.leedsbeckett.finance.model.*;
+
+import java.time.LocalDate;
+import java.time.Month;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@ActiveProfiles("test")
+class InvoiceBatchServiceTest {
+
+    private final LocalDate dueDate = LocalDate.of(2021, Month.DECEMBER, 25);
+    private Account account;
+
+    @MockBean
+    private AccountRepository accountRepository;
+    @MockBean
+    private InvoiceRepository invoiceRepository;
+    @Autowired
+    private InvoiceBatchService invoiceBatchService;
+
+    @BeforeEach
+    public void setUp() {
+        account = new Account("c7777777");
+        account.setId(1L);
+        Mockito.when(accountRepository.findAccountsByStudentIdIn(anyCollection()))
+                .thenReturn(Collections.singletonList(account));
+    }
+
+    @Test
+    void testCreateNewInvoices_withValidAndInvalidItems_insertsValidItemsOnly() {
+        Invoice valid = new Invoice(10.00, dueDate, Type.TUITION_FEES, new Account("c7777777"));
+        Invoice unknownAccount = new Invoice(5.00, dueDate, Type.LIBRARY_FINE, new Account("c0000000"));
+        Invoice noAmount = new Invoice(null, dueDate, Type.LIBRARY_FINE, new Account("c7777777"));
+
+        BatchResult result = invoiceBatchService.createNewInvoices(
+                Arrays.asList(valid, unknownAccount, noAmount).iterator());
+
+        assertEquals(1, result.getCreated());
+        assertEquals(2, result.getInvalid());
+        assertEquals(2, result.getFailures().size());
+        assertEquals(1, result.getFailures().get(0).getIndex());
+        assertNotNull(valid.getReference());
+        assertEquals(Status.OUTSTANDING, valid.getStatus());
+        assertEquals(account, valid.getAccount());
+        verify(accountRepository, times(1)).findAccountsByStudentIdIn(anyCollection());
+        verify(invoiceRepository, times(1)).insertAll(Collections.singletonList(valid));
+        verify(accountRepository, times(1)).adjustOutstanding(Collections.singletonList(valid), 1);
+    }
+
+    @Test
+    void testCreateNewInvoices_whenInsertFails_reportsChunkAsFailed() {
+        Mockito.doThrow(new DataIntegrityViolationException("duplicate reference"))
+                .when(invoiceRepository).insertAll(anyList());
+        Invoice valid = new Invoice(10.00, dueDate, Type.TUITION_FEES, new Account("c7777777"));
+
+        BatchResult result = invoiceBatchService.createNewInvoices(Collections.singletonList(valid).iterator());
+
+        assertEquals(0, result.getCreated());
+        assertEquals(1, result.getFailed());
+        assertEquals(BatchOutcome.FAILED, result.getFailures().get(0).getOutcome());
+        verify(accountRepository, never()).adjustOutstanding(anyList(), eq(1));
+    }
+
+    @Test
+    void testCreateNewInvoices_withUnreadableItem_stopsAndReportsIt() {
+        Invoice valid = new Invoice(10.00, dueDate, Type.TUITION_FEES, new Account("c7777777"));
+        Iterator<Invoice> invoices = new Iterator<Invoice>() {
+            private boolean read;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Invoice next() {
+                if (read) {
+                    throw new IllegalStateException("malformed line");
+                }
+                read = true;
+                return valid;
+            }
+        };
+
+        BatchResult result = invoiceBatchService.createNewInvoices(invoices);
+
+        assertEquals(1, result.getCreated());
+        assertEquals(1, result.getInvalid());
+        assertEquals(1, result.getFailures().get(0).getIndex());
+    }
+
+    @Test
+    void testCancelInvoices_cancelsChunksUntilNoneLeft() {
+        CancellationFilter filter = new CancellationFilter(Type.LIBRARY_FINE, null, dueDate, null);
+        Invoice first = outstandingInvoice(3L);
+        Invoice second = outstandingInvoice(7L);
+        Mockito.when(invoiceRepository.findOutstandingForUpdate(eq(filter), eq(0L), anyInt()))
+                .thenReturn(new ArrayList<>(List.of(first, second)));
+        Mockito.when(invoiceRepository.findOutstandingForUpdate(eq(filter), eq(7L), anyInt()))
+                .thenReturn(new ArrayList<>());
+
+        CancellationResult result = invoiceBatchService.cancelInvoices(filter);
+
+        assertEquals(2, result.getCancelled());
+        assertEquals(1, result.getAccounts());
+        assertEquals(1, result.getChunks());
+        assertEquals(Status.CANCELLED, first.getStatus());
+        assertEquals(Status.CANCELLED, second.getStatus());
+        assertEquals(1, second.getChangeSequence() - first.getChangeSequence());
+        verify(invoiceRepository, times(1)).cancelAll(List.of(first, second));
+        verify(accountRepository, times(1)).adjustOutstanding(List.of(first, second), -1);
+    }
+
+    @Test
+    void testCancelInvoices_withSparseIds_reservesOneChangePerInvoice() {
+        CancellationFilter filter = new CancellationFilter(null, null, null, 1L);
+        Invoice first = outstandingInvoice(1L);
+        Invoice last = outstandingInvoice(5_000_000_000L);
+        Mockito.when(invoiceRepository.findOutstandingForUpdate(eq(filter), eq(0L), anyInt()))
+                .thenReturn(new ArrayList<>(List.of(first, last)));
+        Mockito.when(invoiceRepository.findOutstandingForUpdate(eq(filter), eq(5_000_000_000L), anyInt()))
+                .thenReturn(new ArrayList<>());
+
+        CancellationResult result = invoiceBatchService.cancelInvoices(filter);
+
+        assertEquals(2, result.getCancelled());
+        assertEquals(first.getChangeSequence() + 1, last.getChangeSequence());
+    }
+
+    @Test
+    void testCancelInvoices_withoutCriteria_throwsException() {
+        assertThrows(InvoiceNotValidException.class,
+                () -> invoiceBatchService.cancelInvoices(new CancellationFilter(null, Status.OUTSTANDING, null, null)),
+                "Exception was not thrown.");
+        verify(invoiceRepository, never()).findOutstandingForUpdate(any(), anyLong(), anyInt());
+    }
+
+    @Test
+    void testCancelInvoices_withStatusOtherThanOutstanding_throwsException() {
+        assertThrows(InvoiceNotValidException.class,
+                () -> invoiceBatchService.cancelInvoices(new CancellationFilter(Type.LIBRARY_FINE, Status.PAID, null, null)),
+                "Exception was not thrown.");
+        verify(invoiceRepository, never()).cancelAll(anyList());
+    }
+
+    private Invoice outstandingInvoice(Long id) {
+        Invoice invoice = new Invoice(2.50, dueDate.minusDays(1), Type.LIBRARY_FINE, account);
+        invoice.setId(id);
+        invoice.setReference("CANCEL0" + id);
+        invoice.setStatus(Status.OUTSTANDING);
+        return invoice;
+    }
+}
@@ -0,0 +1,54 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@ActiveProfiles("test")
+class InvoiceChangeSequenceTest {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void testNext_forChunkLargerThanOneTake_returnsIncreasingNumbers() {
+        InvoiceChangeSequence sequence = new InvoiceChangeSequence(jdbcTemplate, Duration.ZERO);
+        int count = InvoiceChangeSequence.NUMBERS_PER_TAKE + 500;
+
+        long[] numbers = sequence.next(count);
+
+        assertEquals(count, numbers.length);
+        for (int i = 1; i < count; i++) {
+            assertTrue(numbers[i] > numbers[i - 1], "Not increasing at " + i);
+        }
+        assertEquals(numbers[0] + InvoiceChangeSequence.NUMBERS_PER_TAKE - 1, numbers[InvoiceChangeSequence.NUMBERS_PER_TAKE - 1]);
+        assertTrue(sequence.next() > numbers[count - 1]);
+    }
+
+    @Test
+    void testSettled_withNoSettleTime_isAboveEveryNumberTaken() {
+        InvoiceChangeSequence sequence = new InvoiceChangeSequence(jdbcTemplate, Duration.ZERO);
+        long[] numbers = sequence.next(3);
+
+        assertTrue(sequence.settled() > numbers[2]);
+    }
+
+    @Test
+    void testSettled_beforeSettleTimeHasPassed_isZero() {
+        InvoiceChangeSequence sequence = new InvoiceChangeSequence(jdbcTemplate, Duration.ofHours(1));
+        sequence.next();
+
+        assertEquals(0, sequence.settled());
+    }
+}
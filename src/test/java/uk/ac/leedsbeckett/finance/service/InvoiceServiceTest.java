@@ -11,13 +11,22 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.hateoas.CollectionModel;
 import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 import uk.ac.leedsbeckett.finance.controller.InvoiceController;
 import uk.ac.leedsbeckett.finance.exception.InvoiceNotFoundException;
+import uk.ac.leedsbeckett.finance.exception.InvoiceNotValidException;
+import uk.ac.leedsbeckett.finance.exception.InvoiceStatusConflictException;
+import uk.ac.leedsbeckett.finance.exception.PageRequestNotValidException;
 import uk.ac.leedsbeckett.finance.model.*;
 
 import java.time.LocalDate;
@@ -27,9 +36,16 @@ import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
@@ -59,8 +75,14 @@ class InvoiceServiceTest {
     private Model model;
     @MockBean
     private BindingResult bindingResult;
+    @MockBean
+    private InvoiceEventOutbox outbox;
     @SpyBean
     private InvoiceModelAssembler invoiceModelAssembler;
+    @SpyBean
+    private ReferenceGenerator referenceGenerator;
+    @SpyBean
+    private InvoiceChangeSequence changeSequence;
     @Autowired
     private InvoiceService invoiceService;
 
@@ -82,14 +104,17 @@ class InvoiceServiceTest {
         invoice.setReference(invoiceReference);
         anotherInvoice = new Invoice(anotherAmount, anotherDueDate, anotherType, anotherAccount);
         anotherInvoice.setId(anotherInvoiceId);
-        Mockito.when(invoiceRepository.findById(invoiceId))
+        anotherInvoice.setReference("5678EFGH");
+        Mockito.when(invoiceRepository.findWithAccountById(invoiceId))
                 .thenReturn(Optional.of(invoice));
         Mockito.when(invoiceRepository.findInvoiceByReference(invoiceReference))
                 .thenReturn(invoice);
-        Mockito.when(invoiceRepository.findAll())
+        Mockito.when(invoiceRepository.findPage(any(), any(), any(), anyInt()))
                 .thenReturn(Arrays.asList(invoice, anotherInvoice));
         Mockito.when(invoiceRepository.save(invoice))
                 .thenReturn(invoice);
+        Mockito.when(invoiceRepository.updateStatus(eq(invoiceId), eq(Status.OUTSTANDING), any(), anyLong()))
+                .thenReturn(1);
         Mockito.when(accountRepository.findAccountByStudentId(studentId))
                 .thenReturn(account);
         Mockito.doNothing().when(invoiceRepository).deleteById(isA(Long.class));
@@ -141,22 +166,117 @@ class InvoiceServiceTest {
 
     @Test
     void testGetAllInvoices_returnsExistingInvoices() {
-        CollectionModel<EntityModel<Invoice>> result = invoiceService.getAllInvoices();
+        CollectionModel<EntityModel<Invoice>> result = invoiceService.getAllInvoices(new InvoiceFilter(), null, null, null);
         assertEquals(2, result.getContent().size());
         assertThat(result.getContent().containsAll(Arrays.asList(invoice, anotherInvoice)));
+        assertFalse(result.hasLink(IanaLinkRelations.NEXT));
+        assertFalse(result.hasLink(IanaLinkRelations.PREV));
         verify(invoiceModelAssembler, times(1)).toModel(invoice);
         verify(invoiceModelAssembler, times(1)).toModel(anotherInvoice);
     }
 
+    @Test
+    void testGetAllInvoices_withFilterAndMoreRowsThanPageSize_returnsNextLinkKeepingFilter() {
+        InvoiceFilter filter = new InvoiceFilter(Status.OUTSTANDING, Type.LIBRARY_FINE,
+                LocalDate.of(2021, Month.DECEMBER, 1), LocalDate.of(2021, Month.DECEMBER, 31), null, null, null);
+        CollectionModel<EntityModel<Invoice>> result = invoiceService.getAllInvoices(filter, null, null, 1);
+        assertEquals(1, result.getContent().size());
+        assertEquals("http://localhost/invoices?after=1&size=1&status=OUTSTANDING&type=LIBRARY_FINE&dueFrom=2021-12-01&dueTo=2021-12-31",
+                result.getRequiredLink(IanaLinkRelations.NEXT).getHref());
+        verify(invoiceRepository, times(1)).findPage(eq(filter), isNull(), isNull(), eq(2));
+    }
+
+    @Test
+    void testGetAllInvoices_withBothCursors_throwsException() {
+        assertThrows(PageRequestNotValidException.class, () -> invoiceService.getAllInvoices(new InvoiceFilter(), 1L, 5L, null),
+                "Exception was not thrown.");
+    }
+
+    @Test
+    void testGetInvoiceChanges_withMoreChangesThanPageSize_returnsCursorAndNextLink() {
+        invoice.setChangeSequence(11L);
+        anotherInvoice.setChangeSequence(12L);
+        Mockito.doReturn(20L).when(changeSequence).settled();
+        Mockito.when(invoiceRepository.findByChangeSequenceGreaterThanAndChangeSequenceLessThanOrderByChangeSequence(eq(10L), eq(20L), any()))
+                .thenReturn(Arrays.asList(invoice, anotherInvoice));
+        InvoiceChangePage result = invoiceService.getInvoiceChanges(10L, 1);
+        assertEquals(1, result.getContent().size());
+        assertEquals(11L, result.getCursor());
+        assertEquals("http://localhost/invoices/changes?since=11&size=1",
+                result.getRequiredLink(IanaLinkRelations.NEXT).getHref());
+    }
+
+    @Test
+    void testGetInvoiceChanges_withNoChanges_keepsCursor() {
+        InvoiceChangePage result = invoiceService.getInvoiceChanges(10L, null);
+        assertEquals(0, result.getContent().size());
+        assertEquals(10L, result.getCursor());
+        assertFalse(result.hasLink(IanaLinkRelations.NEXT));
+    }
+
+    @Test
+    void testGetInvoiceChanges_withNothingSettledAfterCursor_doesNotQuery() {
+        Mockito.doReturn(11L).when(changeSequence).settled();
+        InvoiceChangePage result = invoiceService.getInvoiceChanges(10L, null);
+        assertEquals(0, result.getContent().size());
+        assertEquals(10L, result.getCursor());
+        verify(invoiceRepository, times(0)).findByChangeSequenceGreaterThanAndChangeSequenceLessThanOrderByChangeSequence(any(), any(), any());
+    }
+
+    @Test
+    void testGetInvoiceChanges_withNegativeCursor_throwsException() {
+        assertThrows(PageRequestNotValidException.class, () -> invoiceService.getInvoiceChanges(-1L, null),
+                "Exception was not thrown.");
+    }
+
     @Test
     void testCreateNewInvoice_withValidData_createsInvoice() {
+        Object result = invoiceService.createNewInvoice(invoice).getBody();
         EntityModel<Invoice> invoiceEntityModel = EntityModel.of(invoice,
                 linkTo(methodOn(InvoiceController.class).one(invoice.getReference())).withSelfRel(),
-                linkTo(methodOn(InvoiceController.class).all()).withRel("invoices"),
+                linkTo(methodOn(InvoiceController.class).all(null, null, null, null, null, null, null, null, null, null, null, null)).withRel("invoices").expand(),
                 linkTo(methodOn(InvoiceController.class).cancel(invoice.getReference())).withRel("cancel"),
                 linkTo(methodOn(InvoiceController.class).pay(invoice.getReference())).withRel("pay"));
-        assertEquals(invoiceEntityModel, invoiceService.createNewInvoice(invoice).getBody());
+        assertEquals(invoiceEntityModel, result);
         verify(invoiceModelAssembler, times(1)).toModel(invoice);
+        verify(accountRepository, times(1)).adjustOutstanding(account.getId(), 1, invoice.getAmountMinor());
+        verify(outbox, times(1)).record(InvoiceEventType.INVOICE_CREATED, invoice);
+    }
+
+    @Test
+    void testCreateNewInvoice_withClientReference_usesGeneratedReference() {
+        invoiceService.createNewInvoice(invoice);
+        assertNotEquals(invoiceReference, invoice.getReference());
+        assertTrue(SequenceBlockReferenceGenerator.isValid(invoice.getReference()), invoice.getReference());
+    }
+
+    @Test
+    void testCreateNewInvoice_generatesReferenceBeforeTransaction() {
+        Mockito.doAnswer(invocation -> {
+            assertFalse(TransactionSynchronizationManager.isActualTransactionActive());
+            return invocation.callRealMethod();
+        }).when(referenceGenerator).next();
+        invoiceService.createNewInvoice(invoice);
+        verify(referenceGenerator, times(1)).next();
+    }
+
+    @Test
+    void testCreateNewInvoice_withNoAmount_throwsException() {
+        invoice.setAmount(null);
+        assertThrows(InvoiceNotValidException.class, () -> invoiceService.createNewInvoice(invoice),
+                "Exception was not thrown.");
+        verify(invoiceRepository, times(0)).save(any());
+    }
+
+    @Test
+    void testCreateNewInvoice_withinOneRequest_looksUpAccountOnce() {
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        try {
+            invoiceService.createNewInvoice(invoice);
+        } finally {
+            RequestContextHolder.resetRequestAttributes();
+        }
+        verify(accountRepository, times(1)).findAccountByStudentId(account.getStudentId());
     }
 
     @Test
@@ -166,9 +286,11 @@ class InvoiceServiceTest {
         invoice.setStatus(Status.CANCELLED);
         EntityModel<Invoice> invoiceEntityModel = EntityModel.of(invoice,
                 linkTo(methodOn(InvoiceController.class).one(invoice.getReference())).withSelfRel(),
-                linkTo(methodOn(InvoiceController.class).all()).withRel("invoices"));
+                linkTo(methodOn(InvoiceController.class).all(null, null, null, null, null, null, null, null, null, null, null, null)).withRel("invoices").expand());
         assertEquals(invoiceEntityModel, result.getBody());
         verify(invoiceModelAssembler, times(1)).toModel(invoice);
+        verify(accountRepository, times(1)).adjustOutstanding(account.getId(), -1, -invoice.getAmountMinor());
+        verify(outbox, times(1)).record(InvoiceEventType.INVOICE_CANCELLED, invoice);
     }
 
     @Test
@@ -178,9 +300,11 @@ class InvoiceServiceTest {
         invoice.setStatus(Status.PAID);
         EntityModel<Invoice> invoiceEntityModel = EntityModel.of(invoice,
                 linkTo(methodOn(InvoiceController.class).one(invoice.getReference())).withSelfRel(),
-                linkTo(methodOn(InvoiceController.class).all()).withRel("invoices"));
+                linkTo(methodOn(InvoiceController.class).all(null, null, null, null, null, null, null, null, null, null, null, null)).withRel("invoices").expand());
         assertEquals(invoiceEntityModel, result.getBody());
         verify(invoiceModelAssembler, times(1)).toModel(invoice);
+        verify(invoiceRepository, times(1)).updateStatus(eq(invoiceId), eq(Status.OUTSTANDING), eq(Status.PAID), anyLong());
+        verify(invoiceRepository, times(0)).save(any());
     }
 
     @Test
@@ -188,6 +312,39 @@ class InvoiceServiceTest {
         invoice.setStatus(Status.OUTSTANDING);
         Invoice result = invoiceService.processPayment(invoiceReference);
         assertEquals(Status.PAID, result.getStatus());
+        verify(accountRepository, times(1)).adjustOutstanding(account.getId(), -1, -invoice.getAmountMinor());
+        verify(outbox, times(1)).record(InvoiceEventType.INVOICE_PAID, invoice);
+    }
+
+    @Test
+    void testProcessPayment_whenConcurrentlyChanged_throwsInvoiceStatusConflictException() {
+        invoice.setStatus(Status.OUTSTANDING);
+        Mockito.when(invoiceRepository.updateStatus(eq(invoiceId), eq(Status.OUTSTANDING), eq(Status.PAID), anyLong()))
+                .thenReturn(0);
+        assertThrows(InvoiceStatusConflictException.class, () -> invoiceService.processPayment(invoiceReference),
+                "Exception was not thrown.");
+        verify(accountRepository, times(0)).adjustOutstanding(any(), anyLong(), anyLong());
+        verify(outbox, times(0)).record(any(), any());
+    }
+
+    @Test
+    void testPayInvoice_whenConcurrentlyChanged_returnsConflict() {
+        invoice.setStatus(Status.OUTSTANDING);
+        Mockito.when(invoiceRepository.updateStatus(eq(invoiceId), eq(Status.OUTSTANDING), eq(Status.PAID), anyLong()))
+                .thenReturn(0);
+        ResponseEntity<?> result = invoiceService.pay(invoiceReference);
+        assertEquals(HttpStatus.CONFLICT, result.getStatusCode());
+        verify(invoiceModelAssembler, times(0)).toModel(any());
+    }
+
+    @Test
+    void testCancelInvoice_whenConcurrentlyChanged_returnsConflict() {
+        invoice.setStatus(Status.OUTSTANDING);
+        Mockito.when(invoiceRepository.updateStatus(eq(invoiceId), eq(Status.OUTSTANDING), eq(Status.CANCELLED), anyLong()))
+                .thenReturn(0);
+        ResponseEntity<?> result = invoiceService.cancel(invoiceReference);
+        assertEquals(HttpStatus.CONFLICT, result.getStatusCode());
+        verify(accountRepository, times(0)).adjustOutstanding(any(), anyLong(), anyLong());
     }
 
     @Test
@@ -195,6 +352,7 @@ class InvoiceServiceTest {
         invoice.setStatus(Status.PAID);
         assertThrows(UnsupportedOperationException.class, () -> invoiceService.processPayment(invoiceReference),
                 "Exception was not thrown.");
+        verify(accountRepository, times(0)).adjustOutstanding(any(), anyLong(), anyLong());
     }
 
     @Test
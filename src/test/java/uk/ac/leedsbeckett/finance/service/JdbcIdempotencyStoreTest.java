@@ -0,0 +1,116 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import uk.ac.leedsbeckett.finance.model.IdempotencyRecord;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@ActiveProfiles("test")
+class JdbcIdempotencyStoreTest {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private JdbcIdempotencyStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = new JdbcIdempotencyStore(jdbcTemplate, Duration.ofHours(1), Duration.ofMinutes(1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("delete from idempotency_record");
+    }
+
+    @Test
+    void testReserve_freeKey_isReservedOnce() {
+        assertNull(store.reserve("key-1", "fingerprint"));
+
+        IdempotencyRecord existing = store.reserve("key-1", "fingerprint");
+
+        assertNotNull(existing);
+        assertEquals("fingerprint", existing.getFingerprint());
+        assertFalse(existing.isCompleted());
+    }
+
+    @Test
+    void testReserve_afterComplete_returnsStoredResponse() {
+        store.reserve("key-2", "fingerprint");
+        store.complete(response("key-2", 201, "{\"reference\":\"ABCD1234\"}"));
+
+        IdempotencyRecord existing = store.reserve("key-2", "fingerprint");
+
+        assertTrue(existing.isCompleted());
+        assertEquals(201, existing.getStatus());
+        assertEquals("application/hal+json", existing.getContentType());
+        assertEquals("http://localhost/invoices/1", existing.getLocation());
+        assertEquals("{\"reference\":\"ABCD1234\"}", new String(existing.getBody(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testRelease_freesReservedKey_butNotCompletedOne() {
+        store.reserve("key-3", "fingerprint");
+        store.release("key-3");
+        assertNull(store.reserve("key-3", "fingerprint"));
+
+        store.complete(response("key-3", 200, "{}"));
+        store.release("key-3");
+        assertTrue(store.reserve("key-3", "fingerprint").isCompleted());
+    }
+
+    @Test
+    void testReserve_abandonedReservation_isTakenOver() {
+        insert("key-4", null, Instant.now().minus(Duration.ofMinutes(5)), Instant.now().plus(Duration.ofHours(1)));
+
+        assertNull(store.reserve("key-4", "other"));
+        assertEquals("other", jdbcTemplate.queryForObject(
+                "select fingerprint from idempotency_record where idempotency_key = 'key-4'", String.class));
+    }
+
+    @Test
+    void testReserve_expiredResponse_isForgotten() {
+        insert("key-5", 201, Instant.now().minus(Duration.ofHours(2)), Instant.now().minus(Duration.ofHours(1)));
+
+        assertNull(store.reserve("key-5", "fingerprint"));
+    }
+
+    @Test
+    void testPurge_deletesExpiredRecordsOnly() {
+        insert("key-6", 201, Instant.now().minus(Duration.ofHours(2)), Instant.now().minus(Duration.ofHours(1)));
+        store.reserve("key-7", "fingerprint");
+
+        store.purge();
+
+        assertEquals(1, jdbcTemplate.queryForObject("select count(*) from idempotency_record", Integer.class));
+    }
+
+    private static IdempotencyRecord response(String key, int status, String body) {
+        IdempotencyRecord record = new IdempotencyRecord(key, "fingerprint", null, null);
+        record.setStatus(status);
+        record.setContentType("application/hal+json");
+        record.setLocation("http://localhost/invoices/1");
+        record.setBody(body.getBytes(StandardCharsets.UTF_8));
+        return record;
+    }
+
+    private void insert(String key, Integer status, Instant createdAt, Instant expiresAt) {
+        jdbcTemplate.update("insert into idempotency_record (idempotency_key, fingerprint, status, created_at, expires_at) " +
+                "values (?, 'fingerprint', ?, ?, ?)", key, status, Timestamp.from(createdAt), Timestamp.from(expiresAt));
+    }
+}
@@ -0,0 +1,122 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import uk.ac.leedsbeckett.finance.model.CacheInvalidation;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@ActiveProfiles("test")
+class JdbcInvalidationTransportTest {
+
+    private static final String INSERT_WITH_ID =
+            "insert into cache_invalidation (id, cache_name, cache_key, origin, created_at) values (?, ?, ?, 'other', ?)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private JdbcInvalidationTransport nodeA;
+    private JdbcInvalidationTransport nodeB;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("delete from cache_invalidation");
+        nodeA = transport(Duration.ofMinutes(1));
+        nodeB = transport(Duration.ofMinutes(1));
+        nodeA.receive();
+        nodeB.receive();
+    }
+
+    @AfterEach
+    void tearDown() {
+        // Explicit ids are not seen by the identity column, so they must not outlive the test
+        jdbcTemplate.update("delete from cache_invalidation");
+    }
+
+    @Test
+    void testPublishedOnA_isReceivedOnceOnB_andNotOnA() {
+        nodeA.publish(List.of(
+                new CacheInvalidation(EntityCache.ACCOUNTS_BY_ID, 7L),
+                new CacheInvalidation(EntityCache.INVOICES_BY_REFERENCE, null),
+                new CacheInvalidation(EntityCache.INVOICES_BY_REFERENCE, "1234ABCD", 3L)));
+
+        List<CacheInvalidation> received = nodeB.receive();
+
+        assertEquals(3, received.size());
+        assertEquals(EntityCache.ACCOUNTS_BY_ID, received.get(0).getCacheName());
+        assertEquals("7", received.get(0).getCacheKey());
+        assertEquals(null, received.get(0).getEntityId());
+        assertEquals(null, received.get(1).getCacheKey());
+        assertEquals(3L, received.get(2).getEntityId());
+        assertTrue(nodeB.receive().isEmpty());
+        assertTrue(nodeA.receive().isEmpty());
+    }
+
+    @Test
+    void testRowCommittedBelowHighWaterMark_isReceivedAtNextPoll() {
+        long base = maxId();
+        insert(base + 2, "1234ABCD");
+        assertEquals(1, nodeB.receive().size());
+
+        // The transaction that was allocated base + 1 commits after the high-water mark passed it
+        insert(base + 1, "5678EFGH");
+        List<CacheInvalidation> received = nodeB.receive();
+
+        assertEquals(1, received.size());
+        assertEquals("5678EFGH", received.get(0).getCacheKey());
+        assertTrue(nodeB.receive().isEmpty());
+    }
+
+    @Test
+    void testGap_isGivenUpAfterTimeout() {
+        JdbcInvalidationTransport impatient = transport(Duration.ZERO);
+        impatient.receive();
+        long base = maxId();
+        insert(base + 2, "1234ABCD");
+        assertEquals(1, impatient.receive().size());
+
+        insert(base + 1, "5678EFGH");
+
+        assertTrue(impatient.receive().isEmpty());
+    }
+
+    @Test
+    void testPurge_deletesRowsOlderThanRetention() {
+        long base = maxId();
+        jdbcTemplate.update(INSERT_WITH_ID, base + 1, EntityCache.INVOICES_BY_REFERENCE, "1234ABCD",
+                Timestamp.from(Instant.now().minus(Duration.ofHours(2))));
+        nodeA.publish(List.of(new CacheInvalidation(EntityCache.INVOICES_BY_REFERENCE, "5678EFGH")));
+
+        nodeA.purge();
+
+        assertEquals(1, jdbcTemplate.queryForObject("select count(*) from cache_invalidation", Integer.class));
+    }
+
+    private JdbcInvalidationTransport transport(Duration gapTimeout) {
+        return new JdbcInvalidationTransport(jdbcTemplate, gapTimeout, Duration.ofHours(1));
+    }
+
+    private long maxId() {
+        // Past any id the identity column has handed out, so that explicit ids below cannot clash with it
+        return jdbcTemplate.queryForObject("select coalesce(max(id), 0) from cache_invalidation", Long.class) + 10;
+    }
+
+    private void insert(long id, String reference) {
+        jdbcTemplate.update(INSERT_WITH_ID, id, EntityCache.INVOICES_BY_REFERENCE, reference, Timestamp.from(Instant.now()));
+    }
+}
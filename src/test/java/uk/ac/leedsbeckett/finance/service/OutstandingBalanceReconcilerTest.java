@@ -0,0 +1,97 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import uk.ac.leedsbeckett.finance.model.*;
+
+import java.time.LocalDate;
+import java.time.Month;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@ActiveProfiles("test")
+class OutstandingBalanceReconcilerTest {
+
+    @Autowired
+    private AccountRepository accountRepository;
+    @Autowired
+    private InvoiceRepository invoiceRepository;
+    @Autowired
+    private OutstandingBalanceReconciler reconciler;
+    @Autowired
+    private ReferenceGenerator referenceGenerator;
+
+    @Test
+    void testReconcile_withInvoicesSavedDirectly_rebuildsOutstandingTotals() {
+        Account account = accountRepository.save(new Account("c5555555"));
+        Account anotherAccount = accountRepository.save(new Account("c5555556"));
+        saveInvoice(account, 10.25, Status.OUTSTANDING);
+        saveInvoice(account, 4.75, Status.OUTSTANDING);
+        saveInvoice(account, 100.00, Status.PAID);
+        saveInvoice(anotherAccount, 7.00, Status.CANCELLED);
+
+        assertEquals(0, accountRepository.findAccountByStudentId("c5555555").getOutstandingCount());
+
+        assertTrue(reconciler.reconcile() >= 2);
+
+        Account reconciled = accountRepository.findAccountByStudentId("c5555555");
+        assertEquals(2, reconciled.getOutstandingCount());
+        assertEquals(15.00, reconciled.getOutstandingAmount());
+        assertTrue(reconciled.isHasOutstandingBalance());
+        Account anotherReconciled = accountRepository.findAccountByStudentId("c5555556");
+        assertEquals(0, anotherReconciled.getOutstandingCount());
+        assertEquals(0.0, anotherReconciled.getOutstandingAmount());
+        assertFalse(anotherReconciled.isHasOutstandingBalance());
+    }
+
+    @Test
+    void testAdjustOutstandingAndReconcile_withManySmallAmounts_keepTotalsExact() {
+        Account account = accountRepository.save(new Account("c5555557"));
+        List<Invoice> invoices = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Invoice invoice = new Invoice(0.10, LocalDate.of(2022, Month.JUNE, 1), Type.LIBRARY_FINE, account);
+            invoice.setReference(referenceGenerator.next());
+            invoice.setStatus(Status.OUTSTANDING);
+            invoices.add(invoice);
+        }
+        invoiceRepository.saveAll(invoices);
+
+        // Added up as doubles, a thousand 0.10s come to 99.9999999999986
+        accountRepository.adjustOutstanding(invoices, 1);
+        Account adjusted = accountRepository.findAccountByStudentId("c5555557");
+        assertEquals(1000, adjusted.getOutstandingCount());
+        assertEquals(100.00, adjusted.getOutstandingAmount());
+
+        accountRepository.adjustOutstanding(invoices.subList(0, 990), -1);
+        assertEquals(1.00, accountRepository.findAccountByStudentId("c5555557").getOutstandingAmount());
+
+        reconciler.reconcile();
+        Account reconciled = accountRepository.findAccountByStudentId("c5555557");
+        assertEquals(1000, reconciled.getOutstandingCount());
+        assertEquals(100.00, reconciled.getOutstandingAmount());
+    }
+
+    private void saveInvoice(Account account, double amount, Status status) {
+        Invoice invoice = new Invoice(amount, LocalDate.of(2022, Month.JUNE, 1), Type.LIBRARY_FINE, account);
+        invoice.setReference(referenceGenerator.next());
+        invoice.setStatus(status);
+        invoiceRepository.save(invoice);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        invoiceRepository.deleteAll();
+        accountRepository.deleteAll();
+    }
+}
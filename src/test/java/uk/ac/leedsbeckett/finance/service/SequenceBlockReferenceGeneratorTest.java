@@ -0,0 +1,96 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import uk.ac.leedsbeckett.finance.model.SequenceBlockRepository;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@ActiveProfiles("test")
+class SequenceBlockReferenceGeneratorTest {
+
+    private static final String ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+    @Autowired
+    private SequenceBlockRepository sequenceBlockRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void testEncode_tenMillionValues_produceNoCollisions() {
+        final int count = 10_000_000;
+        long[] references = new long[count];
+        for (int value = 0; value < count; value++) {
+            // 8 base-36 characters fit in a long, which keeps 10M references in 80MB
+            references[value] = Long.parseLong(SequenceBlockReferenceGenerator.encode(value), 36);
+        }
+        Arrays.sort(references);
+        for (int i = 1; i < count; i++) {
+            assertTrue(references[i - 1] != references[i], "Collision at " + references[i]);
+        }
+    }
+
+    @Test
+    void testEncode_producesValidInvoiceReferences() {
+        for (long value : new long[]{0, 1, 2, 35, 36, 1_000_000, SequenceBlockReferenceGenerator.CAPACITY - 1}) {
+            String reference = SequenceBlockReferenceGenerator.encode(value);
+            assertTrue(reference.matches("[A-Z0-9]{8}"), reference);
+            assertTrue(SequenceBlockReferenceGenerator.isValid(reference), reference);
+        }
+    }
+
+    @Test
+    void testIsValid_detectsEverySingleCharacterChange() {
+        for (long value = 0; value < 1_000; value++) {
+            String reference = SequenceBlockReferenceGenerator.encode(value);
+            for (int position = 0; position < reference.length(); position++) {
+                for (char replacement : ALPHABET.toCharArray()) {
+                    if (replacement == reference.charAt(position)) {
+                        continue;
+                    }
+                    char[] changed = reference.toCharArray();
+                    changed[position] = replacement;
+                    assertFalse(SequenceBlockReferenceGenerator.isValid(new String(changed)), new String(changed));
+                }
+            }
+        }
+    }
+
+    @Test
+    void testNext_withTwoInstancesSharingTheSequence_neverRepeatsAReference() throws Exception {
+        List<ReferenceGenerator> generators = List.of(
+                new SequenceBlockReferenceGenerator(sequenceBlockRepository, transactionManager, 10),
+                new SequenceBlockReferenceGenerator(sequenceBlockRepository, transactionManager, 10));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<List<String>>> futures = new ArrayList<>();
+        for (int thread = 0; thread < 4; thread++) {
+            ReferenceGenerator generator = generators.get(thread % 2);
+            futures.add(executor.submit(() -> {
+                List<String> references = new ArrayList<>();
+                for (int i = 0; i < 250; i++) {
+                    references.add(generator.next());
+                }
+                return references;
+            }));
+        }
+        Set<String> references = new HashSet<>();
+        for (Future<List<String>> future : futures) {
+            references.addAll(future.get(30, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+
+        assertEquals(1_000, references.size());
+    }
+}
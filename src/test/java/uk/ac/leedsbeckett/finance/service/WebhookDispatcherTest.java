@@ -0,0 +1,228 @@
+package uk.ac.leedsbeckett.finance.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.ac.leedsbeckett.finance.model.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@ActiveProfiles("test")
+class WebhookDispatcherTest {
+
+    private static final String COUNT_DELIVERED = "select count(*) from outbox_event where delivered_at is not null";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private HttpServer server;
+    private String endpoint;
+    private final ConcurrentLinkedQueue<JsonNode> requests = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+    private volatile CountDownLatch release = new CountDownLatch(0);
+
+    private InvoiceEventOutbox outbox;
+    private WebhookDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // A local stand-in for a subscriber: records each batch, fails while failuresLeft lasts and holds until released
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/hook", exchange -> {
+            requests.add(objectMapper.readTree(exchange.getRequestBody()));
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+            int status = failuresLeft.getAndDecrement() > 0 ? 500 : 204;
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        server.start();
+        endpoint = "http://localhost:" + server.getAddress().getPort() + "/hook";
+        outbox = new InvoiceEventOutbox(jdbcTemplate, objectMapper, List.of(endpoint));
+        dispatcher = dispatcher(2, 3, 5);
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        dispatcher.shutdown();
+        server.stop(0);
+        jdbcTemplate.update("delete from outbox_event");
+    }
+
+    @Test
+    void testRecord_withoutEndpoints_writesNothing() {
+        new InvoiceEventOutbox(jdbcTemplate, objectMapper, List.of(" ")).record(InvoiceEventType.INVOICE_PAID, invoice("WEBHOOK0"));
+
+        assertEquals(0, jdbcTemplate.queryForObject("select count(*) from outbox_event", Integer.class));
+    }
+
+    @Test
+    void testRecord_inRolledBackTransaction_writesNothing() {
+        transactionTemplate.executeWithoutResult(status -> {
+            outbox.record(InvoiceEventType.INVOICE_PAID, invoice("WEBHOOK1"));
+            status.setRollbackOnly();
+        });
+
+        assertEquals(0, jdbcTemplate.queryForObject("select count(*) from outbox_event", Integer.class));
+    }
+
+    @Test
+    void testDispatch_deliversEventsInBatches_andMarksThemDelivered() {
+        recordAll(5);
+
+        dispatcher.dispatch();
+
+        await(() -> jdbcTemplate.queryForObject(COUNT_DELIVERED, Integer.class) == 5);
+        assertEquals(3, requests.size());
+        assertTrue(requests.stream().allMatch(batch -> batch.size() <= 2));
+        List<String> references = requests.stream()
+                .flatMap(batch -> IntStream.range(0, batch.size()).mapToObj(batch::get))
+                .map(event -> event.get("reference").asText())
+                .sorted()
+                .collect(Collectors.toList());
+        assertEquals(List.of("WEBHOOK0", "WEBHOOK1", "WEBHOOK2", "WEBHOOK3", "WEBHOOK4"), references);
+        assertEquals("INVOICE_CREATED", requests.peek().get(0).get("type").asText());
+        assertEquals("c7770001", requests.peek().get(0).get("studentId").asText());
+    }
+
+    @Test
+    void testDispatch_whenEndpointFails_retriesAfterBackoff() {
+        failuresLeft.set(1);
+        recordAll(1);
+
+        dispatcher.dispatch();
+        await(() -> jdbcTemplate.queryForObject("select attempts from outbox_event", Integer.class) == 1);
+
+        assertNotNull(jdbcTemplate.queryForObject("select last_error from outbox_event", String.class));
+        assertTrue(jdbcTemplate.queryForObject("select next_attempt_at from outbox_event", Timestamp.class)
+                .toInstant().isAfter(Instant.now()));
+        dispatcher.dispatch();
+        assertEquals(1, requests.size());
+
+        jdbcTemplate.update("update outbox_event set next_attempt_at = ?", Timestamp.from(Instant.now().minusSeconds(1)));
+        dispatcher.dispatch();
+        await(() -> jdbcTemplate.queryForObject(COUNT_DELIVERED, Integer.class) == 1);
+        assertEquals(2, requests.size());
+        assertEquals(2, jdbcTemplate.queryForObject("select attempts from outbox_event", Integer.class));
+    }
+
+    @Test
+    void testDispatch_afterMaxAttempts_stopsRetrying() {
+        failuresLeft.set(1);
+        dispatcher.shutdown();
+        dispatcher = dispatcher(2, 3, 1);
+        recordAll(1);
+
+        dispatcher.dispatch();
+        await(() -> jdbcTemplate.queryForObject("select attempts from outbox_event", Integer.class) == 1);
+
+        assertNull(jdbcTemplate.queryForObject("select next_attempt_at from outbox_event", Timestamp.class));
+        assertNull(jdbcTemplate.queryForObject("select delivered_at from outbox_event", Timestamp.class));
+    }
+
+    @Test
+    void testDispatch_limitsBatchesInFlightPerEndpoint() {
+        release = new CountDownLatch(1);
+        dispatcher.shutdown();
+        dispatcher = dispatcher(1, 2, 5);
+        recordAll(5);
+
+        dispatcher.dispatch();
+        await(() -> requests.size() == 2);
+        dispatcher.dispatch();
+
+        assertEquals(2, requests.size());
+        assertEquals(0, jdbcTemplate.queryForObject(COUNT_DELIVERED, Integer.class));
+        release.countDown();
+        await(() -> jdbcTemplate.queryForObject(COUNT_DELIVERED, Integer.class) == 2);
+        await(() -> {
+            dispatcher.dispatch();
+            return jdbcTemplate.queryForObject(COUNT_DELIVERED, Integer.class) == 5;
+        });
+    }
+
+    @Test
+    void testBackoff_growsExponentially_upToMaxBackoff() {
+        assertBetween(750, 1250, dispatcher.backoff(1).toMillis());
+        assertBetween(1500, 2500, dispatcher.backoff(2).toMillis());
+        assertBetween(6000, 10000, dispatcher.backoff(4).toMillis());
+        assertBetween(45000, 75000, dispatcher.backoff(7).toMillis());
+        assertBetween(45000, 75000, dispatcher.backoff(100).toMillis());
+    }
+
+    private WebhookDispatcher dispatcher(int batchSize, int maxConcurrency, int maxAttempts) {
+        return new WebhookDispatcher(jdbcTemplate, new RestTemplateBuilder(), outbox, batchSize, maxConcurrency,
+                maxAttempts, Duration.ofSeconds(1), Duration.ofMinutes(1), Duration.ofSeconds(15), Duration.ofDays(1));
+    }
+
+    private void recordAll(int count) {
+        List<Invoice> invoices = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            invoices.add(invoice("WEBHOOK" + i));
+        }
+        transactionTemplate.executeWithoutResult(status -> outbox.recordAll(InvoiceEventType.INVOICE_CREATED, invoices));
+    }
+
+    private static Invoice invoice(String reference) {
+        Invoice invoice = new Invoice(10.0, LocalDate.now().plusDays(30), Type.LIBRARY_FINE, new Account("c7770001"));
+        invoice.setReference(reference);
+        invoice.setStatus(Status.OUTSTANDING);
+        return invoice;
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Condition was not met in time.");
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                fail(exception);
+            }
+        }
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual >= min && actual <= max, actual + " is not between " + min + " and " + max);
+    }
+}
@@ -0,0 +1 @@
+create sequence if not exists invoice_change_seq start with 1 increment by 1000;